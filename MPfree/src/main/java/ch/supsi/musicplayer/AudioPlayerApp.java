@@ -1,5 +1,10 @@
 package ch.supsi.musicplayer;
 
+import ch.supsi.musicplayer.model.Playlist;
+import ch.supsi.musicplayer.model.PlaylistManager;
+import ch.supsi.musicplayer.preferences.business.PreferencesModel;
+import ch.supsi.musicplayer.service.LastFmCache;
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import ch.supsi.musicplayer.translations.application.TranslationsController;
 import ch.supsi.musicplayer.controller.PlayerController;
 import javafx.application.Application;
@@ -11,6 +16,7 @@ import javafx.stage.Stage;
 
 import java.io.IOException;
 import java.net.URL;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.ResourceBundle;
 
@@ -23,6 +29,11 @@ public class AudioPlayerApp extends Application {
         try {
             this.primaryStage = primaryStage;
             translations = TranslationsController.getInstance();
+            PreferencesModel preferences = PreferencesModel.getInstance();
+            LastFmLookupExecutor.getInstance().setConcurrency(preferences.getLastFmConcurrency());
+            LastFmCache.getInstance().setTimeToLive(Duration.ofDays(preferences.getLastFmCacheTtlDays()));
+            LastFmCache.getInstance().setMaxEntries(preferences.getLastFmCacheMaxEntries());
+            PlaylistManager.setCopySongs(preferences.isPlaylistCopySongs());
             loadUI();
             
             translations.currentLanguageProperty().addListener((obs, oldVal, newVal) -> {
@@ -102,5 +113,8 @@ public class AudioPlayerApp extends Application {
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        // Le riscritture degli elenchi ancora in attesa vanno salvate prima di uscire
+        Playlist.flushManifests();
     }
 }
\ No newline at end of file
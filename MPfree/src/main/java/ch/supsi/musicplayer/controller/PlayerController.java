@@ -3,9 +3,13 @@ package ch.supsi.musicplayer.controller;
 import ch.supsi.musicplayer.model.MP3Player;
 import ch.supsi.musicplayer.model.Playlist;
 import ch.supsi.musicplayer.model.SongModel;
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import ch.supsi.musicplayer.translations.application.TranslationsController;
+import javafx.animation.AnimationTimer;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -49,6 +53,8 @@ public class PlayerController {
     @FXML private Label currentTimeLabel;
     @FXML private Label totalTimeLabel;
     private boolean isUpdatingSlider = false;
+    private AnimationTimer progressTimer;
+    private int displayedSecond = -1;
     
     @FXML private Slider volumeSlider;
     @FXML private Label volumeLabel;
@@ -114,24 +120,60 @@ public class PlayerController {
     
     /**
      * Configura i binding per la gestione della riproduzione e del progresso.
-     * Gestisce l'aggiornamento dello slider di progresso, del tempo corrente e totale.
+     * Durante la riproduzione la posizione viene letta dal player a ogni frame tramite un AnimationTimer,
+     * che resta fermo quando la riproduzione è in pausa o interrotta; negli altri casi
+     * (cambio traccia, durata, seek) viene aggiornata una sola volta.
      * Utilizza flag per evitare loop infiniti durante l'aggiornamento dello slider.
      */
     private void setupProgressBindings() {
-        audioPlayer.currentTimeProperty().addListener((obs, oldVal, newVal) -> {
-            if (!isUpdatingSlider) {
-                updateProgressSlider(newVal.doubleValue());
+        progressTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                refreshProgress();
             }
-        });
+        };
         
-        audioPlayer.currentTimeStringProperty().addListener((obs, oldVal, newVal) -> 
-            currentTimeLabel.setText(newVal));
+        audioPlayer.isPlayingProperty().addListener((obs, wasPlaying, playing) -> {
+            if (playing) {
+                progressTimer.start();
+            } else {
+                progressTimer.stop();
+                refreshProgress();
+            }
+        });
+        audioPlayer.currentTrackProperty().addListener((obs, oldTrack, newTrack) -> refreshProgress());
+        audioPlayer.totalDurationProperty().addListener((obs, oldVal, newVal) -> refreshProgress());
         
         audioPlayer.totalTimeStringProperty().addListener((obs, oldVal, newVal) -> 
             totalTimeLabel.setText(newVal));
         
-        currentTimeLabel.setText(audioPlayer.currentTimeStringProperty().get());
         totalTimeLabel.setText(audioPlayer.totalTimeStringProperty().get());
+        refreshProgress();
+        if (audioPlayer.isPlaying()) {
+            progressTimer.start();
+        }
+    }
+    
+    /**
+     * Aggiorna slider ed etichetta del tempo corrente; il testo viene riformattato
+     * solo quando cambia il secondo visualizzato.
+     */
+    private void refreshProgress() {
+        double duration = audioPlayer.totalDurationProperty().get();
+        double currentTime = audioPlayer.getPlaybackPositionSeconds();
+        if (duration > 0) {
+            currentTime = Math.min(currentTime, duration);
+        }
+        
+        if (!isUpdatingSlider) {
+            updateProgressSlider(currentTime);
+        }
+        
+        int second = (int) currentTime;
+        if (second != displayedSecond) {
+            displayedSecond = second;
+            currentTimeLabel.setText(MP3Player.formatTime(second));
+        }
     }
     
     private void updateProgressSlider(double currentTime) {
@@ -179,11 +221,32 @@ public class PlayerController {
      * Mantiene sincronizzata la visualizzazione con lo stato del player.
      */
     private void setupPlaylistBindings() {
-        audioPlayer.currentPlaylistProperty().addListener((obs, oldPlaylist, newPlaylist) -> 
-            updatePlaylistInfo(newPlaylist));
+        // Il conteggio segue anche le durate analizzate in background
+        ChangeListener<Number> durationListener = (obs, oldVal, newVal) -> {
+            Playlist playlist = audioPlayer.getCurrentPlaylist();
+            if (playlist != null) {
+                updatePlaylistTrackCount(playlist);
+            }
+        };
+        audioPlayer.currentPlaylistProperty().addListener((obs, oldPlaylist, newPlaylist) -> {
+            if (oldPlaylist != null) {
+                oldPlaylist.totalDurationProperty().removeListener(durationListener);
+                oldPlaylist.pendingDurationCountProperty().removeListener(durationListener);
+            }
+            if (newPlaylist != null) {
+                newPlaylist.totalDurationProperty().addListener(durationListener);
+                newPlaylist.pendingDurationCountProperty().addListener(durationListener);
+            }
+            updatePlaylistInfo(newPlaylist);
+        });
         
         setupPlaylistListView();
-        updatePlaylistInfo(audioPlayer.getCurrentPlaylist());
+        Playlist currentPlaylist = audioPlayer.getCurrentPlaylist();
+        if (currentPlaylist != null) {
+            currentPlaylist.totalDurationProperty().addListener(durationListener);
+            currentPlaylist.pendingDurationCountProperty().addListener(durationListener);
+        }
+        updatePlaylistInfo(currentPlaylist);
     }
     
     /**
@@ -193,27 +256,44 @@ public class PlayerController {
      */
     private void setupPlaylistListView() {
         playlistQueueListView.setCellFactory(listView -> new javafx.scene.control.ListCell<SongModel>() {
+            // Ogni cella segue artista e durata del proprio brano, così solo le righe cambiate vengono ridisegnate
+            private final ChangeListener<Object> metadataListener = (obs, oldVal, newVal) -> updateText();
+            private SongModel observedSong;
+
+            {
+                styleProperty().bind(Bindings.createStringBinding(() -> {
+                    SongModel song = getItem();
+                    return song != null && song.equals(audioPlayer.getCurrentTrack())
+                            ? "-fx-font-weight: bold; -fx-background-color: lightblue;" : "";
+                }, itemProperty(), audioPlayer.currentTrackProperty()));
+            }
+
             @Override
             protected void updateItem(SongModel song, boolean empty) {
                 super.updateItem(song, empty);
                 
+                if (observedSong != null) {
+                    observedSong.artistProperty().removeListener(metadataListener);
+                    observedSong.durationProperty().removeListener(metadataListener);
+                    observedSong = null;
+                }
+                
                 if (empty || song == null) {
                     setText(null);
                     setGraphic(null);
-                    setStyle("");
                 } else {
-                    setText(formatSongDisplay(song));
-                    if (song.equals(audioPlayer.getCurrentTrack())) {
-                        setStyle("-fx-font-weight: bold; -fx-background-color: lightblue;");
-                    } else {
-                        setStyle("");
-                    }
+                    observedSong = song;
+                    song.artistProperty().addListener(metadataListener);
+                    song.durationProperty().addListener(metadataListener);
+                    updateText();
                 }
             }
+
+            private void updateText() {
+                SongModel song = getItem();
+                setText(song != null ? formatSongDisplay(song) : null);
+            }
         });
-        
-        audioPlayer.currentTrackProperty().addListener((obs, oldTrack, newTrack) -> 
-            playlistQueueListView.refresh());
     }
     
     private String formatSongDisplay(SongModel song) {
@@ -223,9 +303,11 @@ public class PlayerController {
             text.append(" - ").append(song.getArtist());
         }
         
-        if (song.getDuration() > 0) {
-            int minutes = song.getDuration() / 60;
-            int seconds = song.getDuration() % 60;
+        // Solo la durata già nota: le altre arrivano in background e aggiornano la cella
+        int duration = song.getKnownDuration();
+        if (duration > 0) {
+            int minutes = duration / 60;
+            int seconds = duration % 60;
             text.append(String.format(" (%02d:%02d)", minutes, seconds));
         }
         
@@ -259,16 +341,28 @@ public class PlayerController {
         int totalDuration = playlist.getTotalDuration();
         int minutes = totalDuration / 60;
         int seconds = totalDuration % 60;
+        int pending = playlist.getPendingDurationCount();
         
-        playlistTrackCountLabel.setText(String.format("(%d %s • %02d:%02d)", 
-            songs.size(),
-            translations.translate("sidebar.tracksnumber"),
-            minutes,
-            seconds));
+        if (pending > 0) {
+            playlistTrackCountLabel.setText(String.format("(%d %s • %02d:%02d + %d %s)", 
+                songs.size(),
+                translations.translate("sidebar.tracksnumber"),
+                minutes,
+                seconds,
+                pending,
+                translations.translate("sidebar.pending")));
+        } else {
+            playlistTrackCountLabel.setText(String.format("(%d %s • %02d:%02d)", 
+                songs.size(),
+                translations.translate("sidebar.tracksnumber"),
+                minutes,
+                seconds));
+        }
     }
     
     private void updatePlaylistQueue(Playlist playlist) {
-        playlistQueueListView.setItems(FXCollections.observableArrayList(playlist.getSongs()));
+        playlistQueueListView.setItems(playlist.getSongs());
+        LastFmLookupExecutor.getInstance().prioritizeAll(playlist.getSongs(), LastFmLookupExecutor.Priority.VISIBLE);
         
         SongModel currentTrack = audioPlayer.getCurrentTrack();
         if (currentTrack != null) {
@@ -301,7 +395,14 @@ public class PlayerController {
         updateButtonStates(audioPlayer.isPlaying());
     }
     
+    /**
+     * Mostra le informazioni della traccia; artista e album restano legati al brano
+     * e si aggiornano da soli quando arrivano i metadati da Last.fm.
+     */
     private void updateTrackInfo(SongModel track) {
+        artistLabel.textProperty().unbind();
+        albumLabel.textProperty().unbind();
+        
         if (track == null) {
             titleLabel.setText(translations.translate("track.placeholder"));
             artistLabel.setText("");
@@ -311,8 +412,8 @@ public class PlayerController {
         }
         
         titleLabel.setText(track.getTitle());
-        artistLabel.setText(track.getArtist());
-        albumLabel.setText(track.getAlbum());
+        artistLabel.textProperty().bind(track.artistProperty());
+        albumLabel.textProperty().bind(track.albumProperty());
     }
     
     private void setDefaultAlbumArt() {
@@ -413,6 +514,7 @@ public class PlayerController {
         double percent = progressSlider.getValue() / 100.0;
         audioPlayer.seek(percent);
         isUpdatingSlider = false;
+        refreshProgress();
     }
     
     @FXML
@@ -550,7 +652,7 @@ public class PlayerController {
             preferencesStage.setTitle(translations.translate("preferences.title"));
             preferencesStage.initModality(Modality.WINDOW_MODAL);
             preferencesStage.initOwner(this.root.getScene().getWindow());
-            preferencesStage.setScene(new Scene(root, 300, 150));
+            preferencesStage.setScene(new Scene(root, 300, 230));
             preferencesStage.setResizable(false);
             
             preferencesStage.show();
@@ -569,12 +671,8 @@ public class PlayerController {
         SongModel currentTrack = audioPlayer.getCurrentTrack();
         if (currentTrack != null) {
             titleLabel.setText(currentTrack.getTitle());
-            artistLabel.setText(currentTrack.getArtist());
-            albumLabel.setText(currentTrack.getAlbum());
         } else {
             titleLabel.setText(translations.translate("track.placeholder"));
-            artistLabel.setText("");
-            albumLabel.setText("");
         }
 
         volumeLabel.setText((int)(volumeSlider.getValue()) + "%");
@@ -1,10 +1,16 @@
 package ch.supsi.musicplayer.controller;
 
+import ch.supsi.musicplayer.model.LibraryScanner;
 import ch.supsi.musicplayer.model.MP3Player;
+import ch.supsi.musicplayer.model.MetadataBatchResolver;
 import ch.supsi.musicplayer.model.Playlist;
 import ch.supsi.musicplayer.model.PlaylistManager;
+import ch.supsi.musicplayer.model.SongImporter;
 import ch.supsi.musicplayer.model.SongModel;
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import ch.supsi.musicplayer.translations.application.TranslationsController;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -12,6 +18,7 @@ import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
@@ -19,6 +26,7 @@ import javafx.stage.Stage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,9 +41,19 @@ public class PlaylistController {
     @FXML private Button importFolderButton;
     @FXML private Button moveSongUpButton;
     @FXML private Button moveSongDownButton;
+    @FXML private CheckBox gaplessCheckBox;
+    @FXML private ProgressBar libraryScanProgressBar;
+    @FXML private HBox songImportBox;
+    @FXML private ProgressBar songImportProgressBar;
+    @FXML private Label songImportStatusLabel;
     
     private PlaylistManager playlistManager;
     private Playlist selectedPlaylist;
+    // Importazioni in corso, eseguite in parallelo; la barra mostra l'ultima avviata
+    private final List<SongImporter.SongImport> songImports = new ArrayList<>();
+    private SongImporter.SongImport songImport;
+    // Aggiorna il conteggio quando arrivano le durate analizzate in background
+    private final ChangeListener<Number> durationListener = (obs, oldVal, newVal) -> updateTrackCount();
     private MP3Player audioPlayer;
     private final TranslationsController translations;
     
@@ -53,11 +71,14 @@ public class PlaylistController {
         });
         
         playlistSongsListView.setItems(FXCollections.observableArrayList());
+        playlistSongsListView.setCellFactory(listView -> new SongCell());
         
+        setupLibraryScanProgress();
         setupDragAndDrop();
         
         moveSongUpButton.setDisable(true);
         moveSongDownButton.setDisable(true);
+        gaplessCheckBox.setDisable(true);
         
         playlistSongsListView.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
             boolean hasSelection = newVal != null;
@@ -79,19 +100,58 @@ public class PlaylistController {
         playlistManager = PlaylistManager.getInstance(playlistsPath);
     }
     
+    /**
+     * Mostra l'avanzamento del caricamento delle playlist finché la scansione è in corso.
+     */
+    private void setupLibraryScanProgress() {
+        LibraryScanner.LibraryScan scan = playlistManager.getLibraryScan();
+        if (scan == null || scan.isDone()) {
+            libraryScanProgressBar.setVisible(false);
+            libraryScanProgressBar.setManaged(false);
+            return;
+        }
+        
+        bindProgress(scan.progressProperty());
+    }
+    
+    /**
+     * Mostra nella barra di avanzamento il progresso indicato finché non è completo.
+     */
+    private void bindProgress(ReadOnlyDoubleProperty progress) {
+        libraryScanProgressBar.progressProperty().bind(progress);
+        libraryScanProgressBar.visibleProperty().bind(progress.lessThan(1.0));
+        libraryScanProgressBar.managedProperty().bind(libraryScanProgressBar.visibleProperty());
+    }
+    
     private void updateUITexts() {
         if (selectedPlaylist != null) {
             currentPlaylistLabel.setText(selectedPlaylist.getName());
-            int totalDuration = selectedPlaylist.getTotalDuration();
-            int minutes = totalDuration / 60;
-            int seconds = totalDuration % 60;
-            trackCountLabel.setText("(" + selectedPlaylist.getSongs().size() + " " + 
-                                  translations.translate("playlist.tracksnumber") + 
-                                  " • " + String.format("%02d:%02d", minutes, seconds) + ")");
         } else {
             currentPlaylistLabel.setText(translations.translate("playlist.placeholder"));
+        }
+        updateTrackCount();
+    }
+    
+    /**
+     * Mostra numero di brani e durata totale della playlist selezionata.
+     * Finché alcune durate sono ancora in analisi viene mostrato il totale noto seguito dai brani in attesa.
+     */
+    private void updateTrackCount() {
+        if (selectedPlaylist == null) {
             trackCountLabel.setText("(0 " + translations.translate("playlist.tracksnumber") + ")");
+            return;
+        }
+        
+        int totalDuration = selectedPlaylist.getTotalDuration();
+        int minutes = totalDuration / 60;
+        int seconds = totalDuration % 60;
+        String duration = String.format("%02d:%02d", minutes, seconds);
+        int pending = selectedPlaylist.getPendingDurationCount();
+        if (pending > 0) {
+            duration += " + " + pending + " " + translations.translate("playlist.pending");
         }
+        trackCountLabel.setText("(" + selectedPlaylist.getSongs().size() + " " + 
+                              translations.translate("playlist.tracksnumber") + " • " + duration + ")");
     }
     
     /**
@@ -137,12 +197,11 @@ public class PlaylistController {
                     if (sourceIndex != targetIndex && targetIndex >= 0 && targetIndex < playlistSongsListView.getItems().size()) {
                         SongModel song = playlistSongsListView.getItems().get(sourceIndex);
                         
+                        // La lista mostrata è quella della playlist: riceve solo lo spostamento del brano
                         selectedPlaylist.moveSongToPosition(song, targetIndex);
                         
-                        playlistSongsListView.setItems(FXCollections.observableArrayList(selectedPlaylist.getSongs()));
-                        
-                        playlistSongsListView.getSelectionModel().select(song);
-                        playlistSongsListView.scrollTo(song);
+                        playlistSongsListView.getSelectionModel().select(targetIndex);
+                        playlistSongsListView.scrollTo(targetIndex);
                         
                         success = true;
                     }
@@ -179,19 +238,28 @@ public class PlaylistController {
      * Gestione della selezione della playlist
      */
     private void onPlaylistSelected(Playlist playlist) {
+        if (selectedPlaylist != null) {
+            selectedPlaylist.totalDurationProperty().removeListener(durationListener);
+            selectedPlaylist.pendingDurationCountProperty().removeListener(durationListener);
+        }
         this.selectedPlaylist = playlist;
+        updateTrackCount();
         
         if (playlist != null) {
             currentPlaylistLabel.setText(playlist.getName());
-            trackCountLabel.setText("(" + playlist.getSongs().size() + " " + translations.translate("playlist.tracksnumber") + ")");
+            playlist.totalDurationProperty().addListener(durationListener);
+            playlist.pendingDurationCountProperty().addListener(durationListener);
             
             // Aggiorna la lista delle canzoni
-            playlistSongsListView.setItems(FXCollections.observableArrayList(playlist.getSongs()));
+            playlistSongsListView.setItems(playlist.getSongs());
+            LastFmLookupExecutor.getInstance().prioritizeAll(playlist.getSongs(), LastFmLookupExecutor.Priority.VISIBLE);
+            gaplessCheckBox.setSelected(playlist.isGapless());
         } else {
             currentPlaylistLabel.setText(translations.translate("playlist.placeholder"));
-            trackCountLabel.setText("(0 " + translations.translate("playlist.tracksnumber") + ")");
             playlistSongsListView.setItems(FXCollections.observableArrayList());
+            gaplessCheckBox.setSelected(false);
         }
+        gaplessCheckBox.setDisable(playlist == null);
         
         moveSongUpButton.setDisable(true);
         moveSongDownButton.setDisable(true);
@@ -217,9 +285,9 @@ public class PlaylistController {
         boolean moved = selectedPlaylist.moveSongUp(selectedSong);
         
         if (moved) {
-            playlistSongsListView.setItems(FXCollections.observableArrayList(selectedPlaylist.getSongs()));
-            playlistSongsListView.getSelectionModel().select(selectedSong);
-            playlistSongsListView.scrollTo(selectedSong);
+            int index = selectedPlaylist.indexOf(selectedSong);
+            playlistSongsListView.getSelectionModel().select(index);
+            playlistSongsListView.scrollTo(index);
         }
     }
     
@@ -242,9 +310,19 @@ public class PlaylistController {
         boolean moved = selectedPlaylist.moveSongDown(selectedSong);
         
         if (moved) {
-            playlistSongsListView.setItems(FXCollections.observableArrayList(selectedPlaylist.getSongs()));
-            playlistSongsListView.getSelectionModel().select(selectedSong);
-            playlistSongsListView.scrollTo(selectedSong);
+            int index = selectedPlaylist.indexOf(selectedSong);
+            playlistSongsListView.getSelectionModel().select(index);
+            playlistSongsListView.scrollTo(index);
+        }
+    }
+    
+    /**
+     * Gestione della casella Gapless playback
+     */
+    @FXML
+    public void onGaplessToggled() {
+        if (selectedPlaylist != null) {
+            selectedPlaylist.setGapless(gaplessCheckBox.isSelected());
         }
     }
     
@@ -282,9 +360,15 @@ public class PlaylistController {
         
         if (selectedFolder != null) {
             try {
+                // La playlist compare subito; artisti e album vengono aggiornati man mano che arrivano
                 Playlist importedPlaylist = playlistManager.importFolderAsPlaylist(selectedFolder);
                 playlistsListView.getSelectionModel().select(importedPlaylist);
                 
+                MetadataBatchResolver.MetadataBatch batch = playlistManager.getMetadataBatch(importedPlaylist);
+                if (batch != null) {
+                    bindProgress(batch.progressProperty());
+                }
+                
                 showAlert(Alert.AlertType.INFORMATION, translations.translate("playlist.import.success"), 
                         translations.translate("playlist.import.success.info1") + " '" + selectedFolder.getName() + "' " + 
                         translations.translate("playlist.import.success.info2") + " " + 
@@ -358,29 +442,92 @@ public class PlaylistController {
         List<File> selectedFiles = fileChooser.showOpenMultipleDialog(stage);
         
         if (selectedFiles != null && !selectedFiles.isEmpty()) {
-            int successCount = 0;
-            int errorCount = 0;
-            
-            for (File selectedFile : selectedFiles) {
-                SongModel song = new SongModel(selectedFile);
-                boolean success = playlistManager.addSongToPlaylist(selectedPlaylist, song);
-                
-                if (success) {
-                    successCount++;
-                } else {
-                    errorCount++;
-                }
+            // Un'importazione precedente ancora in corso prosegue insieme alla nuova
+            SongImporter.SongImport newImport;
+            try {
+                newImport = playlistManager.importSongs(selectedPlaylist, selectedFiles);
+            } catch (IOException e) {
+                showAlert(Alert.AlertType.ERROR, translations.translate("playlist.add.result"), e.getMessage());
+                return;
             }
-            
-            playlistSongsListView.setItems(FXCollections.observableArrayList(selectedPlaylist.getSongs()));
-            trackCountLabel.setText("(" + selectedPlaylist.getSongs().size() + " " + 
-                                  translations.translate("playlist.tracksnumber") + ")");
-            
-            if (errorCount > 0) {
-                showAlert(Alert.AlertType.INFORMATION, translations.translate("playlist.add.result"), 
-                        successCount + " " + translations.translate("playlist.add.success") + ".\n" + 
-                        errorCount + " " + translations.translate("playlist.add.failed") + ".");
+            trackSongImport(newImport);
+        }
+    }
+    
+    /**
+     * Segue l'importazione finché è in corso: i brani compaiono nella lista man mano che vengono
+     * aggiunti alla playlist.
+     */
+    private void trackSongImport(SongImporter.SongImport newImport) {
+        songImports.add(newImport);
+        showSongImport(newImport);
+        
+        newImport.progressProperty().addListener((obs, oldVal, newVal) -> {
+            if (songImport == newImport) {
+                updateSongImportStatus(newImport);
             }
+            updateTrackCount();
+        });
+        newImport.runningProperty().addListener((obs, wasRunning, isRunning) -> {
+            if (!isRunning) {
+                onSongImportFinished(newImport);
+            }
+        });
+        if (!newImport.runningProperty().get()) {
+            onSongImportFinished(newImport);
+        }
+    }
+    
+    /**
+     * Mostra avanzamento, file in copia e velocità dell'importazione finché è in corso.
+     */
+    private void showSongImport(SongImporter.SongImport shownImport) {
+        songImport = shownImport;
+        songImportProgressBar.progressProperty().bind(shownImport.progressProperty());
+        songImportBox.visibleProperty().bind(shownImport.runningProperty());
+        songImportBox.managedProperty().bind(songImportBox.visibleProperty());
+        songImportStatusLabel.setText("");
+        updateSongImportStatus(shownImport);
+    }
+    
+    private void updateSongImportStatus(SongImporter.SongImport songImport) {
+        SongImporter.FileProgress file = songImport.currentFileProperty().get();
+        if (file == null) return;
+        
+        double megabytesPerSecond = songImport.bytesPerSecondProperty().get() / (1024 * 1024);
+        songImportStatusLabel.setText(String.format("%s %s (%d%%) • %.1f MB/s",
+                translations.translate("playlist.add.copying"),
+                file.getFile().getName(),
+                Math.round(file.getFraction() * 100),
+                megabytesPerSecond));
+    }
+    
+    private void onSongImportFinished(SongImporter.SongImport finishedImport) {
+        songImports.remove(finishedImport);
+        if (songImport == finishedImport && !songImports.isEmpty()) {
+            // La barra passa all'importazione più recente ancora in corso
+            showSongImport(songImports.get(songImports.size() - 1));
+        } else if (songImport == finishedImport) {
+            songImport = null;
+        }
+        updateTrackCount();
+        
+        int errorCount = finishedImport.getFailedCount();
+        if (errorCount > 0) {
+            showAlert(Alert.AlertType.INFORMATION, translations.translate("playlist.add.result"), 
+                    finishedImport.getImportedCount() + " " + translations.translate("playlist.add.success") + ".\n" + 
+                    errorCount + " " + translations.translate("playlist.add.failed") + ".");
+        }
+    }
+    
+    /**
+     * Gestione del pulsante Cancel dell'importazione: annulla tutte le importazioni in corso,
+     * i brani già copiati restano nella playlist.
+     */
+    @FXML
+    public void onCancelImportClicked() {
+        for (SongImporter.SongImport runningImport : new ArrayList<>(songImports)) {
+            runningImport.cancel();
         }
     }
     
@@ -413,9 +560,7 @@ public class PlaylistController {
         if (result.isPresent() && result.get() == ButtonType.OK) {
             boolean success = playlistManager.removeSongFromPlaylist(selectedPlaylist, selectedSong);
             
-            playlistSongsListView.setItems(FXCollections.observableArrayList(selectedPlaylist.getSongs()));
-            trackCountLabel.setText("(" + selectedPlaylist.getSongs().size() + " " + 
-                                  translations.translate("playlist.tracksnumber") + ")");
+            updateTrackCount();
             
             if (!success) {
                 showAlert(Alert.AlertType.WARNING, translations.translate("playlist.remove.warning"), 
@@ -469,4 +614,36 @@ public class PlaylistController {
     public PlaylistManager getPlaylistManager() {
         return playlistManager;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Cella che mostra titolo e artista del brano e si aggiorna da sola quando l'artista
+     * arriva da Last.fm, senza ridisegnare l'intera lista.
+     */
+    private static class SongCell extends ListCell<SongModel> {
+        private final ChangeListener<String> metadataListener = (obs, oldVal, newVal) -> updateText();
+        private SongModel observedSong;
+        
+        @Override
+        protected void updateItem(SongModel song, boolean empty) {
+            super.updateItem(song, empty);
+            
+            if (observedSong != null) {
+                observedSong.artistProperty().removeListener(metadataListener);
+                observedSong = null;
+            }
+            
+            if (empty || song == null) {
+                setText(null);
+            } else {
+                observedSong = song;
+                song.artistProperty().addListener(metadataListener);
+                updateText();
+            }
+        }
+        
+        private void updateText() {
+            SongModel song = getItem();
+            setText(song != null ? song.toString() : null);
+        }
+    }
+}
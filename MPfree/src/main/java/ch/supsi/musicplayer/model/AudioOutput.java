@@ -0,0 +1,133 @@
+package ch.supsi.musicplayer.model;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.Closeable;
+
+/**
+ * Uscita audio del player basata su una {@link SourceDataLine} aperta e gestita direttamente.
+ * Il guadagno viene applicato ai campioni PCM prima della scrittura, senza dipendere
+ * dai controlli del mixer di sistema, e la posizione di riproduzione è letta
+ * dal contatore di frame della linea.
+ */
+final class AudioOutput implements Closeable {
+    private final SourceDataLine line;
+    private final AudioFormat format;
+    private final int bufferMillis;
+    private byte[] byteBuffer = new byte[8192];
+    private volatile float gain = 1.0f;
+    private volatile long framesWritten = 0;
+
+    private AudioOutput(SourceDataLine line, AudioFormat format, int bufferMillis) {
+        this.line = line;
+        this.format = format;
+        this.bufferMillis = bufferMillis;
+    }
+
+    /**
+     * Apre una linea per il formato indicato con un buffer della durata richiesta
+     * e la avvia subito, pronta a ricevere campioni.
+     */
+    static AudioOutput open(AudioFormat format, int bufferMillis) throws LineUnavailableException {
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+        int bufferBytes = (int) (format.getSampleRate() * bufferMillis / 1000) * format.getFrameSize();
+        line.open(format, bufferBytes);
+        line.start();
+        return new AudioOutput(line, format, bufferMillis);
+    }
+
+    boolean matches(AudioFormat other) {
+        return format.matches(other);
+    }
+
+    AudioFormat getFormat() {
+        return format;
+    }
+
+    int getBufferMillis() {
+        return bufferMillis;
+    }
+
+    /**
+     * Scrive valori PCM interlacciati applicando il guadagno corrente.
+     * Blocca finché la linea non ha spazio sufficiente, dettando così il ritmo al thread del decoder.
+     */
+    void write(short[] samples, int offset, int length) {
+        int byteLength = length * 2;
+        if (byteBuffer.length < byteLength) {
+            byteBuffer = new byte[byteLength];
+        }
+
+        float currentGain = gain;
+        int index = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int sample = samples[i];
+            if (currentGain != 1.0f) {
+                sample = Math.round(sample * currentGain);
+                sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            }
+            byteBuffer[index++] = (byte) sample;
+            byteBuffer[index++] = (byte) (sample >>> 8);
+        }
+
+        line.write(byteBuffer, 0, byteLength);
+        framesWritten += length / format.getChannels();
+    }
+
+    void setGain(float gain) {
+        this.gain = gain;
+    }
+
+    /**
+     * Numero di frame audio effettivamente riprodotti dall'apertura della linea.
+     */
+    long getFramePosition() {
+        return line.getLongFramePosition();
+    }
+
+    /**
+     * Posizione, in frame della linea, alla quale verrà riprodotto il prossimo campione scritto.
+     * Serve a sapere quando inizierà a suonare una traccia accodata dopo l'audio ancora nel buffer.
+     */
+    long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Ferma la linea mantenendola aperta: l'audio già nel buffer resta in attesa
+     * e una scrittura in corso rimane bloccata finché la linea non riparte.
+     */
+    void pause() {
+        line.stop();
+    }
+
+    void resume() {
+        line.start();
+    }
+
+    /**
+     * Scarta l'audio in coda e sblocca una eventuale scrittura in attesa.
+     * La linea resta aperta e viene riavviata solo se non era in pausa.
+     */
+    void flush(boolean restart) {
+        line.stop();
+        line.flush();
+        framesWritten = line.getLongFramePosition();
+        if (restart) {
+            line.start();
+        }
+    }
+
+    void drain() {
+        line.drain();
+    }
+
+    @Override
+    public void close() {
+        line.stop();
+        line.flush();
+        line.close();
+    }
+}
@@ -0,0 +1,59 @@
+package ch.supsi.musicplayer.model;
+
+/**
+ * Miscela due flussi PCM durante la dissolvenza incrociata tra due tracce.
+ * Usa una curva a potenza costante (seno/coseno), così il volume percepito resta uniforme
+ * per tutta la durata della transizione. Il buffer della traccia uscente e la tabella della curva
+ * sono allocati una sola volta, quindi la miscelazione non crea oggetti durante la riproduzione.
+ */
+final class Crossfader {
+    private static final int CURVE_STEPS = 1024;
+    private static final float[] FADE_IN_CURVE = new float[CURVE_STEPS + 1];
+
+    static {
+        for (int i = 0; i <= CURVE_STEPS; i++) {
+            FADE_IN_CURVE[i] = (float) Math.sin(i * Math.PI / (2.0 * CURVE_STEPS));
+        }
+    }
+
+    private final short[] outgoingBuffer;
+
+    Crossfader(int blockSize) {
+        this.outgoingBuffer = new short[blockSize];
+    }
+
+    /**
+     * Buffer in cui leggere i campioni della traccia uscente, della stessa dimensione del blocco PCM.
+     */
+    short[] getOutgoingBuffer() {
+        return outgoingBuffer;
+    }
+
+    /**
+     * Miscela sul posto un blocco della traccia entrante con i campioni della traccia uscente
+     * già letti in {@link #getOutgoingBuffer()}. Se la traccia uscente ha fornito meno campioni,
+     * i mancanti sono trattati come silenzio.
+     *
+     * @param incoming       campioni interlacciati della traccia entrante, sovrascritti con il risultato
+     * @param length         numero di valori validi in {@code incoming}
+     * @param outgoingLength numero di valori validi nel buffer della traccia uscente
+     * @param channels       numero di canali
+     * @param fadePosition   campioni per canale di dissolvenza già miscelati prima di questo blocco
+     * @param fadeLength     durata complessiva della dissolvenza in campioni per canale
+     */
+    void mix(short[] incoming, int length, int outgoingLength, int channels, long fadePosition, long fadeLength) {
+        for (int frame = 0; frame * channels < length; frame++) {
+            long position = Math.min(fadeLength, fadePosition + frame);
+            int step = (int) (position * CURVE_STEPS / fadeLength);
+            float gainIn = FADE_IN_CURVE[step];
+            float gainOut = FADE_IN_CURVE[CURVE_STEPS - step];
+
+            for (int channel = 0; channel < channels; channel++) {
+                int i = frame * channels + channel;
+                int outgoing = i < outgoingLength ? outgoingBuffer[i] : 0;
+                int mixed = Math.round(incoming[i] * gainIn + outgoing * gainOut);
+                incoming[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+            }
+        }
+    }
+}
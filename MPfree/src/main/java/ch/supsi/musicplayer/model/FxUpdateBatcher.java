@@ -0,0 +1,55 @@
+package ch.supsi.musicplayer.model;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Porta sul thread JavaFX gli aggiornamenti di metadati e durata dei brani fatti da altri thread.
+ * I brani modificati si accumulano in una coda che viene svuotata al massimo una volta per frame,
+ * così migliaia di risposte di Last.fm producono pochi aggiornamenti dell'interfaccia.
+ */
+final class FxUpdateBatcher {
+    private static final Queue<SongModel> changed = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private static AnimationTimer timer;
+
+    private FxUpdateBatcher() {
+    }
+
+    /**
+     * Segnala che i metadati o la durata del brano sono cambiati; le proprietà osservabili vengono aggiornate al prossimo frame.
+     */
+    static void publish(SongModel song) {
+        changed.add(song);
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(FxUpdateBatcher::start);
+        }
+    }
+
+    private static void start() {
+        if (timer == null) {
+            timer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    flush();
+                    stop();
+                }
+            };
+        }
+        timer.start();
+    }
+
+    private static void flush() {
+        // Va azzerato prima di svuotare la coda: i brani segnalati dopo richiedono un nuovo frame
+        scheduled.set(false);
+
+        SongModel song;
+        while ((song = changed.poll()) != null) {
+            song.publishMetadata();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ch.supsi.musicplayer.model;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Carica le cartelle delle playlist in parallelo su un pool fork-join di dimensione limitata.
+ * Ogni cartella è un task del pool e i suoi brani vengono costruiti a loro volta in parallelo
+ * sullo stesso pool. Le playlist completate vengono pubblicate sul thread JavaFX a gruppi:
+ * una sola richiesta a {@link Platform#runLater(Runnable)} raccoglie tutte quelle terminate nel frattempo,
+ * così le prime compaiono subito senza inondare il thread dell'interfaccia.
+ */
+public final class LibraryScanner {
+    private final ForkJoinPool pool;
+
+    public LibraryScanner(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Avvia la scansione delle cartelle indicate.
+     *
+     * @param publisher riceve sul thread JavaFX ogni gruppo di playlist caricate, nell'ordine delle cartelle
+     * @return la scansione avviata, che permette di seguirne l'avanzamento o di annullarla
+     */
+    public LibraryScan scan(List<File> directories, Consumer<List<Playlist>> publisher) {
+        LibraryScan scan = new LibraryScan(directories.size(), publisher);
+        for (int i = 0; i < directories.size(); i++) {
+            File directory = directories.get(i);
+            int order = i;
+            scan.tasks.add(pool.submit(() -> scan.complete(order, loadPlaylist(directory, scan))));
+        }
+        return scan;
+    }
+
+    private static Playlist loadPlaylist(File directory, LibraryScan scan) {
+        try {
+            // Eseguito su un thread del pool: anche lo stream parallelo usa lo stesso pool
+            List<SongModel> songs = Playlist.loadSongFiles(directory).parallelStream()
+                    .filter(file -> !scan.isCancelled())
+                    .map(SongModel::new)
+                    .collect(Collectors.toList());
+            return scan.isCancelled() ? null : new Playlist(directory, songs);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to load playlist: " + directory.getPath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Scansione in corso: espone l'avanzamento come proprietà JavaFX e permette di annullarla.
+     * Dopo l'annullamento nessun'altra playlist viene pubblicata.
+     */
+    public static final class LibraryScan {
+        private final int totalCount;
+        private final Consumer<List<Playlist>> publisher;
+        private final List<Future<?>> tasks = new ArrayList<>();
+        private final Queue<ScannedPlaylist> completed = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean publishScheduled = new AtomicBoolean(false);
+        private final AtomicInteger scannedCount = new AtomicInteger(0);
+        private final ReadOnlyDoubleWrapper progress;
+        private volatile boolean cancelled = false;
+
+        private LibraryScan(int totalCount, Consumer<List<Playlist>> publisher) {
+            this.totalCount = totalCount;
+            this.publisher = publisher;
+            this.progress = new ReadOnlyDoubleWrapper(totalCount == 0 ? 1.0 : 0.0);
+        }
+
+        private void complete(int order, Playlist playlist) {
+            if (playlist != null) {
+                completed.add(new ScannedPlaylist(order, playlist));
+            }
+            scannedCount.incrementAndGet();
+
+            if (publishScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::publish);
+            }
+        }
+
+        private void publish() {
+            // Va azzerato prima di svuotare la coda: le playlist aggiunte dopo richiedono una nuova pubblicazione
+            publishScheduled.set(false);
+
+            List<ScannedPlaylist> batch = new ArrayList<>();
+            ScannedPlaylist scanned;
+            while ((scanned = completed.poll()) != null) {
+                batch.add(scanned);
+            }
+
+            if (cancelled) return;
+
+            progress.set((double) scannedCount.get() / totalCount);
+            if (!batch.isEmpty()) {
+                batch.sort(Comparator.comparingInt(item -> item.order));
+                publisher.accept(batch.stream().map(item -> item.playlist).collect(Collectors.toList()));
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            for (Future<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return cancelled || scannedCount.get() == totalCount;
+        }
+
+        public int getScannedCount() {
+            return scannedCount.get();
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * Frazione di cartelle caricate, da 0 a 1, aggiornata sul thread JavaFX.
+         */
+        public ReadOnlyDoubleProperty progressProperty() {
+            return progress.getReadOnlyProperty();
+        }
+    }
+
+    private static final class ScannedPlaylist {
+        private final int order;
+        private final Playlist playlist;
+
+        private ScannedPlaylist(int order, Playlist playlist) {
+            this.order = order;
+            this.playlist = playlist;
+        }
+    }
+}
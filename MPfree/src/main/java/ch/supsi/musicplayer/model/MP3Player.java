@@ -1,39 +1,44 @@
 package ch.supsi.musicplayer.model;
 
+import ch.supsi.musicplayer.preferences.application.PreferencesBusinessInterface;
+import ch.supsi.musicplayer.preferences.business.PreferencesModel;
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import javafx.application.Platform;
 import javafx.beans.property.*;
-import javazoom.jl.player.Player;
+import javafx.collections.ListChangeListener;
 
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.FloatControl;
-import javax.sound.sampled.Line;
-import javax.sound.sampled.Mixer;
-import java.io.BufferedInputStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MP3Player {
+    public static final int DEFAULT_OUTPUT_BUFFER_MS = 200;
+    private static final int PCM_BLOCK_SIZE = 4608;
+    private static final int PREFETCH_MILLIS = 300;
+
     private static MP3Player instance;
     
     private final SimpleObjectProperty<SongModel> currentTrack = new SimpleObjectProperty<>();
     private final BooleanProperty isPlaying = new SimpleBooleanProperty(false);
-    private final DoubleProperty currentTime = new SimpleDoubleProperty(0);
     private final DoubleProperty totalDuration = new SimpleDoubleProperty(0);
-    private final StringProperty currentTimeString = new SimpleStringProperty("00:00");
     private final StringProperty totalTimeString = new SimpleStringProperty("00:00");
     
+    private final PreferencesBusinessInterface preferences;
+    
     private double volume = 0.5;  
     private double volumeBeforeMute = 0.5; 
     private boolean isMuted = false;  
-    private File currentFile;
-    private boolean isPaused = false;
-    private long startTimeMillis = 0;
-    private double pausedTimePosition = 0;
-    private long bytesSkipped = 0;
+    private volatile File currentFile;
+    private volatile boolean isPaused = false;
+    private volatile double pausedTimePosition = 0;
+    private volatile Mp3SeekIndex seekIndex;
     
     private final ExecutorService playerExecutor = Executors.newSingleThreadExecutor(r -> {
         Thread t = new Thread(r);
@@ -41,28 +46,38 @@ public class MP3Player {
         return t;
     });
     
-    private final ScheduledExecutorService timerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
         Thread t = new Thread(r);
         t.setDaemon(true);
         return t;
     });
     
-    private ScheduledFuture<?> progressTask;
-    private Player jlPlayer;
+    private volatile AudioOutput audioOutput;
+    private volatile int outputBufferMillis = DEFAULT_OUTPUT_BUFFER_MS;
+    private volatile long playbackSession = 0;
+    private volatile int trackSampleRate = 0;
+    private volatile long trackStartSample = 0;
+    private volatile long trackStartFrame = 0;
+    private volatile long playbackSamplePosition = 0;
+    private final Object pauseLock = new Object();
+    private final AtomicReference<PrefetchedTrack> prefetchedTrack = new AtomicReference<>();
+    private final AtomicLong prefetchGeneration = new AtomicLong();
+    private Playlist prefetchPlaylist;
+    private int prefetchFromIndex = -1;
+    private int prefetchIndex = -1;
     private Future<?> playerFuture;
     private boolean isShutdown = false;
     
-    private List<FloatControl> volumeControls = new ArrayList<>();
-    
-    private Playlist currentPlaylist;
-    private int currentPlaylistIndex = -1;
+    private volatile Playlist currentPlaylist;
+    private volatile int currentPlaylistIndex = -1;
 
     private final SimpleObjectProperty<Playlist> currentPlaylistProperty = new SimpleObjectProperty<>();
+    private final ListChangeListener<SongModel> playlistChangeListener = this::onPlaylistChanged;
     private boolean isShuffleEnabled = false;
     private List<Integer> shuffleOrder = new ArrayList<>();
 
     private MP3Player() {
-        initializeVolumeControls();
+        preferences = PreferencesModel.getInstance();
         setVolume(0.5); 
     }
 
@@ -77,48 +92,6 @@ public class MP3Player {
         instance = null;
     }
     
-    /**
-     * Inizializza i controlli di volume per tutti i dispositivi audio disponibili.
-     * Cerca e configura i controlli del volume sia per le linee di input che di output.
-     * Gestisce diversi tipi di controlli (VOLUME e MASTER_GAIN) per garantire
-     * la massima compatibilità con diversi sistemi audio.
-     */
-    private void initializeVolumeControls() {
-        try {
-            Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
-            
-            for (Mixer.Info mixerInfo : mixerInfos) {
-                try {
-                    Mixer mixer = AudioSystem.getMixer(mixerInfo);
-                    processMixerLines(mixer, mixer.getTargetLineInfo());
-                    processMixerLines(mixer, mixer.getSourceLineInfo());
-                } catch (Exception e) {
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to initialize volume controls: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    private void processMixerLines(Mixer mixer, Line.Info[] lineInfos) {
-        for (Line.Info lineInfo : lineInfos) {
-            try {
-                Line line = mixer.getLine(lineInfo);
-                line.open();
-                
-                if (line.isControlSupported(FloatControl.Type.VOLUME)) {
-                    FloatControl volumeControl = (FloatControl) line.getControl(FloatControl.Type.VOLUME);
-                    volumeControls.add(volumeControl);
-                } else if (line.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-                    FloatControl gainControl = (FloatControl) line.getControl(FloatControl.Type.MASTER_GAIN);
-                    volumeControls.add(gainControl);
-                }
-            } catch (Exception e) {
-            }
-        }
-    }
-
     /**
      * Carica un file audio nel player e ne calcola la durata.
      * Gestisce sia il caricamento del file che l'aggiornamento dell'interfaccia utente.
@@ -131,17 +104,13 @@ public class MP3Player {
         try {
             this.currentFile = file;
             SongModel song = new SongModel(file);
+            LastFmLookupExecutor.getInstance().prioritize(song, LastFmLookupExecutor.Priority.PLAYING);
             Platform.runLater(() -> currentTrack.set(song));
-            Platform.runLater(() -> {
-                currentTime.set(0);
-                currentTimeString.set("00:00");
-            });
 
             if (song.getDuration() > 0) {
                 updateDuration(song.getDuration());
-            } else {
-                calculateDurationFromFile(file);
             }
+            buildSeekIndex(file, song.getDuration() <= 0);
         } catch (Exception e) {
             System.err.println("Error loading file: " + file.getName());
             e.printStackTrace();
@@ -160,37 +129,32 @@ public class MP3Player {
     }
 
     /**
-     * Calcola la durata di un file audio in due modi:
-     * 1. Leggendo i frame MP3 e calcolando la durata esatta
-     * 2. Se non è possibile leggere i frame, stima la durata basandosi sulla dimensione del file
-     *    assumendo un bitrate medio di 128kbps
+     * Costruisce l'indice di seek della traccia sul thread del player.
+     * Essendo l'executor a thread singolo, l'indice è pronto prima di qualsiasi
+     * richiesta di riproduzione, ripresa o seek accodata successivamente.
+     * Se la durata non è ancora nota viene ricavata dall'indice; se il file non è leggibile
+     * la durata viene stimata dalla dimensione del file assumendo un bitrate medio di 128kbps.
      */
-    private void calculateDurationFromFile(File file) {
-        try (FileInputStream fis = new FileInputStream(file);
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-            
-            javazoom.jl.decoder.Bitstream bitstream = new javazoom.jl.decoder.Bitstream(bis);
-            javazoom.jl.decoder.Header header = bitstream.readFrame();
-            
-            if (header != null) {
-                int totalFrames = 0;
-                double msPerFrame = header.ms_per_frame();
-                
-                while (header != null) {
-                    totalFrames++;
-                    bitstream.closeFrame();
-                    header = bitstream.readFrame();
+    private void buildSeekIndex(File file, boolean updateDurationFromIndex) {
+        seekIndex = null;
+        if (isShutdown) return;
+
+        playerExecutor.submit(() -> {
+            try {
+                Mp3SeekIndex index = Mp3Analyzer.getInstance().getSeekIndex(file);
+                if (file.equals(currentFile)) {
+                    seekIndex = index;
+                    if (updateDurationFromIndex) {
+                        updateDuration(index.getDurationSeconds());
+                    }
+                }
+            } catch (Exception e) {
+                if (updateDurationFromIndex && file.equals(currentFile)) {
+                    long fileSize = file.length();
+                    updateDuration(Math.max(fileSize / (128 * 1024 / 8), 1));
                 }
-                
-                updateDuration((totalFrames * msPerFrame) / 1000.0);
-            } else {
-                long fileSize = file.length();
-                updateDuration(Math.max(fileSize / (128 * 1024 / 8), 1));
             }
-        } catch (Exception e) {
-            long fileSize = file.length();
-            updateDuration(Math.max(fileSize / (128 * 1024 / 8), 1));
-        }
+        });
     }
 
     public void play() {
@@ -203,155 +167,299 @@ public class MP3Player {
         }
         
         stopPlayback();
-        playFileFromBeginning();
+        startPlayback(0);
     }
     
-    private void playFileFromBeginning() {
+    /**
+     * Avvia una nuova sessione di riproduzione dalla posizione indicata.
+     * Il file viene decodificato con Bitstream e Decoder di JLayer e i campioni PCM sono scritti
+     * sulla linea audio del player; l'indice di seek posiziona lo stream sul frame che contiene
+     * la posizione richiesta e i campioni precedenti vengono scartati.
+     * Ogni sessione ha un proprio identificativo: una sessione sostituita da una più recente
+     * termina senza notificare la fine della traccia e senza segnalare errori.
+     */
+    private void startPlayback(double positionInSeconds) {
+        startSession(null, positionInSeconds);
+    }
+    
+    private void startSession(PrefetchedTrack prefetched, double positionInSeconds) {
         if (isShutdown) return;
         
-        playerFuture = playerExecutor.submit(() -> {
-            try (FileInputStream fis = new FileInputStream(currentFile);
-                 BufferedInputStream bis = new BufferedInputStream(fis)) {
-                
-                jlPlayer = new Player(bis);
-                
-                startTimeMillis = System.currentTimeMillis();
-                pausedTimePosition = 0;
-                bytesSkipped = 0;
-                isPaused = false;
+        final long session = ++playbackSession;
+        final File file = currentFile;
+        final Playlist playlist = currentPlaylist;
+        isPaused = false;
+        
+        playerFuture = playerExecutor.submit(() -> runSession(session, file, playlist, prefetched, positionInSeconds));
+        schedulePrefetch();
+    }
+    
+    /**
+     * Corpo di una sessione di riproduzione, eseguito sul thread del player.
+     * Decodifica la traccia e ne scrive i campioni sulla linea audio; in pausa il thread si ferma
+     * prima del blocco successivo tenendo aperti decoder e linea, così la ripresa continua
+     * esattamente dal punto in cui si era fermata.
+     * A fine traccia, se la successiva della playlist è già stata preparata, i suoi campioni
+     * vengono accodati sulla stessa linea senza svuotarla, evitando pause tra un brano e l'altro.
+     */
+    private void runSession(long session, File file, Playlist playlist, PrefetchedTrack prefetched,
+                            double positionInSeconds) {
+        Mp3PcmStream stream = null;
+        Mp3PcmStream outgoing = null;
+        try {
+            if (prefetched != null) {
+                stream = prefetched.stream;
+            } else {
+                Mp3SeekIndex index = obtainSeekIndex(file, positionInSeconds);
+                stream = Mp3PcmStream.open(file, index, positionInSeconds, readGaplessInfo(file, playlist));
+                if (index != null) {
+                    stream.setTotalSamples(index.getTotalSamples());
+                }
+            }
+            if (session != playbackSession) return;
+            
+            AudioOutput output = obtainOutput(stream.getFormat());
+            beginTrack(stream, output.getFramePosition());
+            
+            Platform.runLater(() -> isPlaying.set(true));
+            
+            short[] pcm = new short[PCM_BLOCK_SIZE];
+            Crossfader crossfader = new Crossfader(PCM_BLOCK_SIZE);
+            long fadePosition = 0;
+            long fadeLength = 0;
+            
+            while (session == playbackSession) {
+                synchronized (pauseLock) {
+                    while (isPaused && session == playbackSession) {
+                        pauseLock.wait();
+                    }
+                }
+                if (session != playbackSession) return;
                 
-                Platform.runLater(() -> isPlaying.set(true));
-                startProgressTimer();
-                jlPlayer.play();
+                if (outgoing == null && isCrossfadeDue(stream, playlist)) {
+                    PrefetchedTrack next = takePrefetchedTrack(currentPlaylistIndex, output.getFormat());
+                    if (next != null) {
+                        outgoing = stream;
+                        fadeLength = Math.max(1, stream.getRemainingSamples());
+                        fadePosition = 0;
+                        stream = next.stream;
+                        beginTrack(stream, output.getFramesWritten());
+                        Platform.runLater(() -> onTrackAdvanced(next, session));
+                    }
+                }
                 
-                if (!Thread.currentThread().isInterrupted() && !isShutdown) {
-                    Platform.runLater(() -> {
-                        isPlaying.set(false);
-                        currentTime.set(totalDuration.get());
-                        currentTimeString.set(totalTimeString.get());
-                        
-                        if (currentPlaylist != null && !isPaused && !isShutdown) {
-                            playNextInPlaylist();
-                        }
-                    });
+                int count = stream.read(pcm, 0, pcm.length);
+                if (outgoing != null) {
+                    if (count > 0) {
+                        int outgoingCount = outgoing.read(crossfader.getOutgoingBuffer(), 0, count);
+                        crossfader.mix(pcm, count, Math.max(0, outgoingCount), stream.getChannels(),
+                                fadePosition, fadeLength);
+                        fadePosition += count / stream.getChannels();
+                    }
+                    if (count < 0 || fadePosition >= fadeLength) {
+                        closeQuietly(outgoing);
+                        outgoing = null;
+                    }
                 }
-            } catch (Exception e) {
-                if (!Thread.currentThread().isInterrupted() && !isShutdown) {
-                    e.printStackTrace();
-                    Platform.runLater(() -> isPlaying.set(false));
+                if (count >= 0) {
+                    output.write(pcm, 0, count);
+                    publishPosition(output);
+                    continue;
+                }
+                
+                PrefetchedTrack next = takePrefetchedTrack(currentPlaylistIndex, output.getFormat());
+                if (next == null) {
+                    output.drain();
+                    if (session == playbackSession && !isShutdown) {
+                        Platform.runLater(this::onTrackFinished);
+                    }
+                    return;
                 }
+                
+                stream.close();
+                stream = next.stream;
+                beginTrack(stream, output.getFramesWritten());
+                Platform.runLater(() -> onTrackAdvanced(next, session));
             }
-        });
+        } catch (Exception e) {
+            if (session == playbackSession && !isShutdown) {
+                e.printStackTrace();
+                Platform.runLater(() -> isPlaying.set(false));
+            }
+        } finally {
+            closeQuietly(outgoing);
+            closeQuietly(stream);
+        }
+    }
+    
+    /**
+     * Indica se è il momento di iniziare la dissolvenza verso la traccia successiva:
+     * la durata configurata nelle preferenze è maggiore di zero, la playlist non è in modalità
+     * senza pause e alla fine della traccia corrente mancano meno campioni della dissolvenza.
+     */
+    private boolean isCrossfadeDue(Mp3PcmStream stream, Playlist playlist) {
+        if (playlist == null || playlist.isGapless()) {
+            return false;
+        }
+        
+        long fadeSamples = (long) preferences.getCrossfadeSeconds() * stream.getSampleRate();
+        long remaining = stream.getRemainingSamples();
+        return fadeSamples > 0 && remaining >= 0 && remaining <= fadeSamples;
+    }
+    
+    /**
+     * Restituisce le informazioni LAME sul silenzio aggiunto dall'encoder,
+     * usate per rimuoverlo solo se la playlist è in modalità senza pause.
+     */
+    private static Mp3VbrHeader readGaplessInfo(File file, Playlist playlist) {
+        if (playlist == null || !playlist.isGapless()) {
+            return null;
+        }
+        try {
+            return Mp3VbrHeader.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private Mp3SeekIndex obtainSeekIndex(File file, double positionInSeconds) {
+        Mp3SeekIndex index = seekIndex;
+        if (index == null && positionInSeconds > 0) {
+            try {
+                index = Mp3Analyzer.getInstance().getSeekIndex(file);
+                seekIndex = index;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Registra da quale frame della linea inizierà a suonare lo stream,
+     * riferimento per il calcolo della posizione corrente.
+     */
+    private void beginTrack(Mp3PcmStream stream, long startFrame) {
+        trackSampleRate = stream.getSampleRate();
+        trackStartSample = stream.getSamplePosition();
+        trackStartFrame = startFrame;
+    }
+    
+    /**
+     * Pubblica la posizione di riproduzione calcolata dai frame effettivamente suonati dalla linea.
+     * Chiamato dal thread del decoder dopo ogni blocco scritto: la UI legge il valore quando le serve
+     * con {@link #getPlaybackPositionSeconds()}, senza timer né notifiche sul thread JavaFX.
+     */
+    private void publishPosition(AudioOutput output) {
+        long playedFrames = output.getFramePosition() - trackStartFrame;
+        playbackSamplePosition = trackStartSample + Math.max(0, playedFrames);
+    }
+    
+    private void onTrackFinished() {
+        playbackSamplePosition = (long) (totalDuration.get() * trackSampleRate);
+        isPlaying.set(false);
+        
+        if (currentPlaylist != null && !isPaused && !isShutdown) {
+            playNextInPlaylist();
+        }
+    }
+    
+    /**
+     * Restituisce la linea audio per il formato della traccia.
+     * La linea esistente viene riutilizzata se formato e dimensione del buffer coincidono,
+     * svuotandola da eventuali campioni residui della sessione precedente;
+     * altrimenti viene chiusa e ne viene aperta una nuova.
+     */
+    private AudioOutput obtainOutput(AudioFormat format) throws LineUnavailableException {
+        AudioOutput output = audioOutput;
+        if (output != null && output.matches(format) && output.getBufferMillis() == outputBufferMillis) {
+            output.flush(true);
+            return output;
+        }
+        
+        if (output != null) {
+            output.close();
+        }
+        output = AudioOutput.open(format, outputBufferMillis);
+        output.setGain(toGain(volume));
+        audioOutput = output;
+        return output;
     }
 
     public void pause() {
-        if (!isPlaying.get() || jlPlayer == null) return;
+        if (!isPlaying.get()) return;
         
         // Calcola la posizione corrente prima di mettere in pausa
         pausedTimePosition = getCurrentTimePosition();
         isPaused = true;
         
-        stopPlayback();
-        stopProgressTimer();
+        AudioOutput output = audioOutput;
+        if (output != null) {
+            output.pause();
+        }
         
         Platform.runLater(() -> isPlaying.set(false));
     }
 
+    /**
+     * Riprende la riproduzione dopo una pausa.
+     * Se il thread del decoder è ancora in attesa viene semplicemente risvegliato e la linea audio
+     * riparte con i campioni già nel buffer; altrimenti (ad esempio dopo un seek in pausa)
+     * viene avviata una nuova sessione dalla posizione salvata.
+     */
     public void resume() {
         if (isPlaying.get() || !isPaused || currentFile == null) return;
         
-        playFromPosition(pausedTimePosition);
-    }
-    
-    /**
-     * Riproduce un file audio da una posizione specifica.
-     * Gestisce il salto dei byte iniziali per riprendere dalla posizione corretta,
-     * aggiorna il timer di inizio e gestisce la riproduzione asincrona.
-     * Gestisce anche gli errori di riproduzione e l'interruzione del thread.
-     */
-    private void playFromPosition(double positionInSeconds) {
-        if (isShutdown) return;
+        AudioOutput output = audioOutput;
+        if (output == null || playerFuture == null || playerFuture.isDone()) {
+            startPlayback(pausedTimePosition);
+            return;
+        }
         
-        playerFuture = playerExecutor.submit(() -> {
-            try (FileInputStream fis = new FileInputStream(currentFile)) {
-                double pausePercent = Math.min(0.98, positionInSeconds / totalDuration.get());
-                long fileSize = currentFile.length();
-                bytesSkipped = (long)(fileSize * pausePercent);
-                
-                if (bytesSkipped > 0) {
-                    fis.skip(bytesSkipped);
-                }
-                
-                try (BufferedInputStream bis = new BufferedInputStream(fis)) {
-                    jlPlayer = new Player(bis);
-                    
-                    startTimeMillis = System.currentTimeMillis() - (long)(positionInSeconds * 1000);
-                    isPaused = false;
-                    
-                    Platform.runLater(() -> isPlaying.set(true));
-                    startProgressTimer();
-                    
-                    jlPlayer.play();
-                    
-                    if (!Thread.currentThread().isInterrupted() && !isShutdown) {
-                        Platform.runLater(() -> {
-                            isPlaying.set(false);
-                            currentTime.set(totalDuration.get());
-                            currentTimeString.set(totalTimeString.get());
-                            
-                            if (currentPlaylist != null && !isPaused && !isShutdown) {
-                                playNextInPlaylist();
-                            }
-                        });
-                    }
-                }
-            } catch (Exception e) {
-                if (!Thread.currentThread().isInterrupted() && !isShutdown) {
-                    e.printStackTrace();
-                    Platform.runLater(() -> isPlaying.set(false));
-                }
-            }
-        });
+        synchronized (pauseLock) {
+            isPaused = false;
+            output.resume();
+            pauseLock.notifyAll();
+        }
+        
+        Platform.runLater(() -> isPlaying.set(true));
     }
 
     public void stop() {
         stopPlayback();
-        stopProgressTimer();
         
         isPaused = false;
         pausedTimePosition = 0;
-        bytesSkipped = 0;
+        playbackSamplePosition = 0;
         
-        Platform.runLater(() -> {
-            isPlaying.set(false);
-            currentTime.set(0);
-            currentTimeString.set("00:00");
-        });
+        Platform.runLater(() -> isPlaying.set(false));
     }
 
+    /**
+     * Chiude la sessione di riproduzione corrente senza attese.
+     * La linea audio viene fermata e svuotata per sbloccare il thread del decoder, ma resta aperta
+     * per la sessione successiva, che viene accodata sullo stesso executor a thread singolo
+     * e parte quindi solo dopo che quella precedente ha rilasciato il file.
+     */
     private void stopPlayback() {
-        try {
-            if (jlPlayer != null) {
-                jlPlayer.close();
-                jlPlayer = null;
-            }
-            
-            if (playerFuture != null && !playerFuture.isDone()) {
-                playerFuture.cancel(true);
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        } catch (Exception e) {
+        playbackSession++;
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+        
+        AudioOutput output = audioOutput;
+        if (output != null) {
+            output.flush(false);
+        }
+        
+        if (playerFuture != null && !playerFuture.isDone()) {
+            playerFuture.cancel(false);
         }
     }
 
     public void seek(double percent) {
         if (currentFile == null || percent < 0.0 || percent > 1.0) return;
         
-        // JLayer non supporta il seek diretto, quindi dobbiamo ripartire dalla nuova posizione
         boolean wasPlaying = isPlaying.get();
         
         stopPlayback();
@@ -361,14 +469,10 @@ public class MP3Player {
         
         // Aggiorna il tracciamento della posizione
         pausedTimePosition = seekTime;
-        
-        Platform.runLater(() -> {
-            currentTime.set(seekTime);
-            currentTimeString.set(formatTime(seekTime));
-        });
+        playbackSamplePosition = (long) (seekTime * trackSampleRate);
         
         if (wasPlaying) {
-            playFromPosition(seekTime);
+            startPlayback(seekTime);
         } else {
             isPaused = true;
         }
@@ -397,87 +501,69 @@ public class MP3Player {
     }
 
     /**
-     * Imposta il volume del player gestendo diversi tipi di controlli audio:
-     * - Controlli VOLUME standard
-     * - Controlli MASTER_GAIN con curva di potenza per una migliore percezione
-     * - Controllo del volume di sistema su Windows se non sono disponibili controlli Java
+     * Imposta il volume del player.
+     * Il volume viene applicato come guadagno direttamente ai campioni PCM scritti sulla linea,
+     * con una curva quadratica per una migliore percezione dei livelli bassi.
      * Arrotonda il volume a 1 decimale per evitare problemi di precisione.
      */
     public void setVolume(double value) {
         value = Math.min(1.0, Math.max(0.0, Math.round(value * 10) / 10.0));
         volume = value;
         
-        for (FloatControl control : volumeControls) {
-            try {
-                if (control.getType() == FloatControl.Type.VOLUME) {
-                    control.setValue((float) volume);
-                } else if (control.getType() == FloatControl.Type.MASTER_GAIN) {
-                    float min = control.getMinimum();
-                    float max = control.getMaximum();
-                    
-                    if (volume <= 0.01) {
-                        control.setValue(min);
-                        continue;
-                    }
-                    float gain = min + (max - min) * (float)Math.pow(volume, 0.5);
-                    control.setValue(Math.min(max, Math.max(min, gain)));
-                }
-            } catch (Exception e) {
-                System.err.println("Failed to set volume on control: " + e.getMessage());
-            }
-        }
-        
-        if (volumeControls.isEmpty() && System.getProperty("os.name").toLowerCase().contains("win")) {
-            try {
-                int windowsVolume = (int)(65535 * volume);
-                Runtime.getRuntime().exec("nircmd.exe setsysvolume " + windowsVolume);
-            } catch (Exception e) {
-            }
+        AudioOutput output = audioOutput;
+        if (output != null) {
+            output.setGain(toGain(volume));
         }
     }
     
+    private static float toGain(double volume) {
+        return (float) (volume * volume);
+    }
+    
+    /**
+     * Imposta la dimensione del buffer della linea audio in millisecondi.
+     * Buffer più piccoli riducono la latenza, più grandi tollerano meglio i rallentamenti del sistema.
+     * Il valore viene applicato alla prossima traccia avviata.
+     */
+    public void setOutputBufferMillis(int bufferMillis) {
+        outputBufferMillis = Math.max(20, bufferMillis);
+    }
+    
+    public int getOutputBufferMillis() {
+        return outputBufferMillis;
+    }
+    
+    /**
+     * Calcola la posizione corrente dai frame effettivamente riprodotti dalla linea audio,
+     * a partire dal campione da cui è iniziata la sessione.
+     */
     private double getCurrentTimePosition() {
+        AudioOutput output = audioOutput;
         if (isPaused) {
             return pausedTimePosition;
-        } else if (isPlaying.get()) {
-            return (System.currentTimeMillis() - startTimeMillis) / 1000.0;
+        } else if (isPlaying.get() && output != null && trackSampleRate > 0) {
+            long playedFrames = output.getFramePosition() - trackStartFrame;
+            return (trackStartSample + Math.max(0, playedFrames)) / (double) trackSampleRate;
         } else {
             return 0;
         }
     }
     
-    private void startProgressTimer() {
-        stopProgressTimer();
-        
-        progressTask = timerExecutor.scheduleAtFixedRate(() -> {
-            if (isPlaying.get()) {
-                double currentSeconds = getCurrentTimePosition();
-                double duration = totalDuration.get();
-                
-                // Controlla se abbiamo raggiunto la fine
-                if (currentSeconds >= duration) {
-                    Platform.runLater(() -> {
-                        currentTime.set(duration);
-                        currentTimeString.set(totalTimeString.get());
-                    });
-                    return;
-                }
-                
-                Platform.runLater(() -> {
-                    currentTime.set(currentSeconds);
-                    currentTimeString.set(formatTime(currentSeconds));
-                });
-            }
-        }, 100, 100, TimeUnit.MILLISECONDS);
-    }
-    
-    private void stopProgressTimer() {
-        if (progressTask != null && !progressTask.isDone()) {
-            progressTask.cancel(false);
+    /**
+     * Posizione di riproduzione della traccia corrente in secondi.
+     * Legge l'ultimo valore pubblicato dal thread del decoder senza sincronizzazione,
+     * quindi può essere interrogata a ogni frame dell'interfaccia.
+     */
+    public double getPlaybackPositionSeconds() {
+        if (isPaused) {
+            return pausedTimePosition;
         }
+        
+        int sampleRate = trackSampleRate;
+        return sampleRate > 0 ? playbackSamplePosition / (double) sampleRate : 0;
     }
     
-    private String formatTime(double timeInSeconds) {
+    public static String formatTime(double timeInSeconds) {
         int minutes = (int) (timeInSeconds / 60);
         int seconds = (int) (timeInSeconds % 60);
         return String.format("%02d:%02d", minutes, seconds);
@@ -486,9 +572,15 @@ public class MP3Player {
     public void shutdown() {
         isShutdown = true;
         stopPlayback();
-        stopProgressTimer();
+        clearPrefetch();
         playerExecutor.shutdownNow();
-        timerExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
+        
+        AudioOutput output = audioOutput;
+        if (output != null) {
+            output.close();
+            audioOutput = null;
+        }
     }
     
     public SimpleObjectProperty<SongModel> currentTrackProperty() {
@@ -507,18 +599,10 @@ public class MP3Player {
         return isPlaying.get();
     }
     
-    public DoubleProperty currentTimeProperty() {
-        return currentTime;
-    }
-    
     public DoubleProperty totalDurationProperty() {
         return totalDuration;
     }
     
-    public StringProperty currentTimeStringProperty() {
-        return currentTimeString;
-    }
-    
     public StringProperty totalTimeStringProperty() {
         return totalTimeString;
     }
@@ -528,7 +612,7 @@ public class MP3Player {
             return;
         }
         
-        this.currentPlaylist = playlist;
+        setCurrentPlaylist(playlist);
         this.currentPlaylistIndex = 0;
         
         Platform.runLater(() -> currentPlaylistProperty.set(playlist));
@@ -537,11 +621,62 @@ public class MP3Player {
         load(firstSong.getFile());
     }
 
+    private void setCurrentPlaylist(Playlist playlist) {
+        if (currentPlaylist != null) {
+            currentPlaylist.getSongs().removeListener(playlistChangeListener);
+        }
+        this.currentPlaylist = playlist;
+        if (playlist != null) {
+            playlist.getSongs().addListener(playlistChangeListener);
+        }
+    }
+
+    /**
+     * Chiamato quando brani della playlist in riproduzione vengono aggiunti, rimossi o spostati.
+     * La posizione della traccia corrente viene ricalcolata e la traccia preparata in anticipo,
+     * che potrebbe non essere più la successiva o non far più parte della playlist, viene scartata
+     * e preparata di nuovo.
+     */
+    private void onPlaylistChanged(ListChangeListener.Change<? extends SongModel> change) {
+        Playlist playlist = currentPlaylist;
+        File file = currentFile;
+        if (playlist == null) return;
+
+        int removedAt = -1;
+        while (change.next()) {
+            for (SongModel song : change.getRemoved()) {
+                if (song.getFile().equals(file)) {
+                    removedAt = change.getFrom();
+                }
+            }
+        }
+
+        int size = playlist.getSongs().size();
+        int index = file != null ? playlist.indexOf(file) : -1;
+        if (index >= 0) {
+            currentPlaylistIndex = index;
+        } else if (removedAt >= 0) {
+            // La traccia corrente è stata rimossa: la successiva è quella che ne ha preso il posto
+            currentPlaylistIndex = size > 0 ? (removedAt - 1 + size) % size : -1;
+        } else {
+            currentPlaylistIndex = Math.min(currentPlaylistIndex, size - 1);
+        }
+        if (isShuffleEnabled && shuffleOrder.size() != size) {
+            generateShuffleOrder();
+        }
+
+        clearPrefetch();
+        schedulePrefetch();
+    }
+
     public boolean toggleShuffle() {
         isShuffleEnabled = !isShuffleEnabled;
         if (isShuffleEnabled && currentPlaylist != null) {
             generateShuffleOrder();
         }
+        if (currentPlaylist != null) {
+            schedulePrefetch();
+        }
         return isShuffleEnabled;
     }
 
@@ -585,6 +720,8 @@ public class MP3Player {
             return;
         }
         
+        int previousIndex = currentPlaylistIndex;
+        
         if (isShuffleEnabled) {
             int currentShuffleIndex = shuffleOrder.indexOf(currentPlaylistIndex);
             if (currentShuffleIndex >= 0 && currentShuffleIndex < shuffleOrder.size() - 1) {
@@ -600,6 +737,15 @@ public class MP3Player {
             }
         }
         
+        PrefetchedTrack prefetched = takePrefetchedTrack(previousIndex, null);
+        if (prefetched != null && prefetched.index == currentPlaylistIndex) {
+            playPrefetchedTrack(prefetched);
+            return;
+        }
+        if (prefetched != null) {
+            closeQuietly(prefetched.stream);
+        }
+        
         SongModel nextSong = currentPlaylist.getSongs().get(currentPlaylistIndex);
         load(nextSong.getFile());
         play();
@@ -636,6 +782,172 @@ public class MP3Player {
         play();
     }
 
+    /**
+     * Prepara in background la traccia che seguirà quella corrente nella playlist,
+     * rispettando l'ordine casuale se attivo: ricava la durata del brano della playlist, ne costruisce l'indice
+     * di seek, apre il file e decodifica in anticipo i primi {@link #PREFETCH_MILLIS} millisecondi.
+     * In modalità casuale, all'ultima traccia dell'ordine corrente il successivo non è prevedibile
+     * perché l'ordine viene rigenerato, quindi non viene preparato nulla.
+     */
+    private void schedulePrefetch() {
+        Playlist playlist = currentPlaylist;
+        int fromIndex = currentPlaylistIndex;
+        int nextIndex = peekNextIndex();
+        if (playlist != null && playlist == prefetchPlaylist
+                && fromIndex == prefetchFromIndex && nextIndex == prefetchIndex) {
+            return;
+        }
+        
+        clearPrefetch();
+        if (playlist == null || nextIndex < 0 || isShutdown) return;
+        
+        prefetchPlaylist = playlist;
+        prefetchFromIndex = fromIndex;
+        prefetchIndex = nextIndex;
+        
+        SongModel song = playlist.getSongs().get(nextIndex);
+        File file = song.getFile();
+        long generation = prefetchGeneration.get();
+        
+        prefetchExecutor.submit(() -> {
+            if (generation != prefetchGeneration.get()) return;
+            
+            Mp3PcmStream stream = null;
+            try {
+                song.getDuration();
+                Mp3SeekIndex index = Mp3Analyzer.getInstance().getSeekIndex(file);
+                stream = Mp3PcmStream.open(file, null, 0, readGaplessInfo(file, playlist));
+                stream.setTotalSamples(index.getTotalSamples());
+                stream.prefetch(PREFETCH_MILLIS);
+                
+                PrefetchedTrack track = new PrefetchedTrack(playlist, fromIndex, nextIndex, song, index, stream);
+                if (generation == prefetchGeneration.get()) {
+                    prefetchedTrack.set(track);
+                    stream = null;
+                    if (generation != prefetchGeneration.get() && prefetchedTrack.compareAndSet(track, null)) {
+                        closeQuietly(track.stream);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to prefetch next track: " + file.getName());
+            } finally {
+                closeQuietly(stream);
+            }
+        });
+    }
+    
+    private void clearPrefetch() {
+        prefetchGeneration.incrementAndGet();
+        prefetchPlaylist = null;
+        PrefetchedTrack track = prefetchedTrack.getAndSet(null);
+        if (track != null) {
+            closeQuietly(track.stream);
+        }
+    }
+    
+    /**
+     * Preleva la traccia preparata se segue davvero quella indicata nella playlist corrente
+     * e, quando è richiesto un formato, se può essere accodata sulla stessa linea audio.
+     */
+    private PrefetchedTrack takePrefetchedTrack(int fromIndex, AudioFormat format) {
+        PrefetchedTrack track = prefetchedTrack.get();
+        if (track == null || track.playlist != currentPlaylist || track.fromIndex != fromIndex) {
+            return null;
+        }
+        if (format != null && !format.matches(track.stream.getFormat())) {
+            return null;
+        }
+        return prefetchedTrack.compareAndSet(track, null) ? track : null;
+    }
+    
+    /**
+     * Aggiorna lo stato del player sulla traccia preparata. Come ogni altro cambio di traccia avviene
+     * sul thread JavaFX, che è l'unico a scrivere indice, file corrente e indice di seek.
+     * Il brano è quello della playlist, quindi la sua ricerca su Last.fm passa in testa alla coda.
+     */
+    private void advanceToPrefetchedTrack(PrefetchedTrack track) {
+        currentPlaylistIndex = track.index;
+        currentFile = track.song.getFile();
+        seekIndex = track.seekIndex;
+        LastFmLookupExecutor.getInstance().prioritize(track.song, LastFmLookupExecutor.Priority.PLAYING);
+        currentTrack.set(track.song);
+        updateDuration(track.seekIndex.getDurationSeconds());
+    }
+    
+    /**
+     * Chiamato sul thread JavaFX quando il thread del player ha accodato la traccia preparata
+     * alla fine di quella corrente. Se nel frattempo è partita un'altra riproduzione, ad esempio
+     * con {@link #playNextInPlaylist()}, lo stato impostato da quella non viene toccato.
+     */
+    private void onTrackAdvanced(PrefetchedTrack track, long session) {
+        if (session != playbackSession) return;
+        
+        advanceToPrefetchedTrack(track);
+        schedulePrefetch();
+    }
+    
+    /**
+     * Avvia una traccia già preparata senza passare da {@link #load(File)}.
+     */
+    private void playPrefetchedTrack(PrefetchedTrack track) {
+        stop();
+        advanceToPrefetchedTrack(track);
+        startSession(track, 0);
+    }
+    
+    /**
+     * Calcola, senza modificare lo stato, l'indice della traccia che seguirà quella corrente.
+     *
+     * @return l'indice successivo oppure -1 se non è determinabile
+     */
+    private int peekNextIndex() {
+        if (currentPlaylist == null || currentPlaylistIndex < 0) {
+            return -1;
+        }
+        
+        if (isShuffleEnabled) {
+            int currentShuffleIndex = shuffleOrder.indexOf(currentPlaylistIndex);
+            if (currentShuffleIndex >= 0 && currentShuffleIndex < shuffleOrder.size() - 1) {
+                return shuffleOrder.get(currentShuffleIndex + 1);
+            }
+            return -1;
+        }
+        
+        int size = currentPlaylist.getSongs().size();
+        return size > 0 ? (currentPlaylistIndex + 1) % size : -1;
+    }
+    
+    private static void closeQuietly(Mp3PcmStream stream) {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+        }
+    }
+    
+    /**
+     * Traccia successiva preparata in anticipo: brano della playlist, indice di seek e stream già aperto
+     * con i primi campioni decodificati. {@code fromIndex} è la traccia dopo la quale va riprodotta.
+     */
+    private static final class PrefetchedTrack {
+        private final Playlist playlist;
+        private final int fromIndex;
+        private final int index;
+        private final SongModel song;
+        private final Mp3SeekIndex seekIndex;
+        private final Mp3PcmStream stream;
+        
+        PrefetchedTrack(Playlist playlist, int fromIndex, int index, SongModel song,
+                        Mp3SeekIndex seekIndex, Mp3PcmStream stream) {
+            this.playlist = playlist;
+            this.fromIndex = fromIndex;
+            this.index = index;
+            this.song = song;
+            this.seekIndex = seekIndex;
+            this.stream = stream;
+        }
+    }
+
     public Playlist getCurrentPlaylist() {
         return currentPlaylist;
     }
@@ -680,7 +992,8 @@ public class MP3Player {
 
     public void clearCurrentPlaylist() {
         stop();
-        this.currentPlaylist = null;
+        clearPrefetch();
+        setCurrentPlaylist(null);
         this.currentPlaylistIndex = -1;
         this.shuffleOrder.clear();
         Platform.runLater(() -> currentPlaylistProperty.set(null));
@@ -0,0 +1,193 @@
+package ch.supsi.musicplayer.model;
+
+import ch.supsi.musicplayer.service.LastFmService;
+import ch.supsi.musicplayer.service.TrackName;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Risolve in blocco i metadati dei brani di una cartella importata.
+ * I brani vengono raggruppati per chiave normalizzata di artista e titolo, così ogni combinazione
+ * viene cercata una sola volta; quelli con artista e album già registrati nell'archivio locale
+ * vengono saltati. Le ricerche restanti partono da un unico thread che ne tiene in volo un numero
+ * limitato con l'API asincrona di {@link LastFmService}: le risposte in cache arrivano subito,
+ * le altre seguono il ritmo del limitatore di frequenza del servizio.
+ */
+public final class MetadataBatchResolver {
+    private static final int MAX_IN_FLIGHT = 8;
+
+    private MetadataBatchResolver() {
+    }
+
+    /**
+     * Avvia la risoluzione dei metadati dei brani indicati.
+     *
+     * @param publisher riceve sul thread JavaFX, a gruppi, i brani i cui metadati sono stati aggiornati
+     * @return la risoluzione avviata, che permette di seguirne l'avanzamento o di annullarla
+     */
+    public static MetadataBatch resolve(List<SongModel> songs, Consumer<List<SongModel>> publisher) {
+        Map<String, LookupGroup> groups = new LinkedHashMap<>();
+        for (SongModel song : songs) {
+            if (song.hasResolvedMetadata()) continue;
+
+            TrackName name = TrackName.parse(song.getFile().getName());
+            groups.computeIfAbsent(name.getKey(), key -> new LookupGroup(name)).songs.add(song);
+        }
+
+        MetadataBatch batch = new MetadataBatch(new ArrayList<>(groups.values()), publisher);
+        if (!groups.isEmpty()) {
+            Thread worker = new Thread(batch::run, "metadata-batch");
+            worker.setDaemon(true);
+            batch.worker = worker;
+            worker.start();
+        }
+        return batch;
+    }
+
+    /**
+     * Risoluzione in corso: espone l'avanzamento come proprietà JavaFX e permette di annullarla.
+     * Dopo l'annullamento nessun brano viene più aggiornato.
+     */
+    public static final class MetadataBatch {
+        private final List<LookupGroup> groups;
+        private final Consumer<List<SongModel>> publisher;
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+        private final Queue<SongModel> updated = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean publishScheduled = new AtomicBoolean(false);
+        private final AtomicInteger resolvedCount = new AtomicInteger(0);
+        private final ReadOnlyDoubleWrapper progress;
+        private volatile Thread worker;
+        private volatile boolean cancelled = false;
+
+        private MetadataBatch(List<LookupGroup> groups, Consumer<List<SongModel>> publisher) {
+            this.groups = groups;
+            this.publisher = publisher;
+            this.progress = new ReadOnlyDoubleWrapper(groups.isEmpty() ? 1.0 : 0.0);
+        }
+
+        private void run() {
+            LastFmService service = LastFmService.getInstance();
+            try {
+                for (LookupGroup group : groups) {
+                    inFlight.acquire();
+                    if (cancelled) return;
+
+                    CompletableFuture<Optional<LastFmService.SongMetadata>> lookup =
+                            service.getTrackInfoAsync(group.name);
+                    pending.add(lookup);
+                    lookup.whenComplete((result, error) -> {
+                        pending.remove(lookup);
+                        inFlight.release();
+                        if (error != null && !cancelled) {
+                            System.err.println("Last.fm lookup failed for \""
+                                    + group.name.getSearchTitle() + "\": " + error);
+                        }
+                        complete(group, result);
+                    });
+                }
+            } catch (InterruptedException e) {
+                // Risoluzione annullata
+            }
+        }
+
+        private void complete(LookupGroup group, Optional<LastFmService.SongMetadata> result) {
+            if (cancelled) return;
+
+            if (result != null && result.isPresent()) {
+                for (SongModel song : group.songs) {
+                    song.applyMetadata(result.get());
+                }
+                updated.addAll(group.songs);
+            }
+            resolvedCount.incrementAndGet();
+
+            if (publishScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::publish);
+            }
+        }
+
+        private void publish() {
+            // Va azzerato prima di svuotare la coda: i brani aggiornati dopo richiedono una nuova pubblicazione
+            publishScheduled.set(false);
+
+            List<SongModel> batch = new ArrayList<>();
+            SongModel song;
+            while ((song = updated.poll()) != null) {
+                batch.add(song);
+            }
+
+            if (cancelled) return;
+
+            progress.set((double) resolvedCount.get() / groups.size());
+            if (!batch.isEmpty()) {
+                publisher.accept(batch);
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Thread thread = worker;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            for (CompletableFuture<?> lookup : pending) {
+                lookup.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return cancelled || resolvedCount.get() == groups.size();
+        }
+
+        /**
+         * @return il numero di combinazioni distinte di artista e titolo già cercate
+         */
+        public int getResolvedCount() {
+            return resolvedCount.get();
+        }
+
+        /**
+         * @return il numero di combinazioni distinte di artista e titolo da cercare
+         */
+        public int getTotalCount() {
+            return groups.size();
+        }
+
+        /**
+         * Frazione di ricerche completate, da 0 a 1, aggiornata sul thread JavaFX.
+         */
+        public ReadOnlyDoubleProperty progressProperty() {
+            return progress.getReadOnlyProperty();
+        }
+    }
+
+    private static final class LookupGroup {
+        private final TrackName name;
+        private final List<SongModel> songs = new ArrayList<>();
+
+        private LookupGroup(TrackName name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Punto unico di analisi dei file MP3, usato da brani, playlist e player.
+ * I risultati sono memorizzati nella voce del {@link TrackMetadataStore} condivisa da tutti,
+ * quindi un file viene analizzato al massimo una volta finché non cambia. Richieste contemporanee
+ * per lo stesso file attendono l'analisi già in corso invece di avviarne un'altra.
+ */
+public final class Mp3Analyzer {
+    private static final int BACKGROUND_THREADS = 2;
+
+    private static Mp3Analyzer instance;
+
+    private final TrackMetadataStore store;
+    private final Map<String, CompletableFuture<TrackMetadata>> pendingAnalyses = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Mp3SeekIndex>> pendingSeekIndexes = new ConcurrentHashMap<>();
+    private final ExecutorService backgroundExecutor = Executors.newFixedThreadPool(BACKGROUND_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "mp3-analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Mp3Analyzer() {
+        store = TrackMetadataStore.getInstance();
+    }
+
+    public static synchronized Mp3Analyzer getInstance() {
+        if (instance == null) {
+            instance = new Mp3Analyzer();
+        }
+
+        return instance;
+    }
+
+    public static synchronized void resetInstance() {
+        instance = null;
+    }
+
+    /**
+     * Restituisce durata, bitrate, frequenza di campionamento, modalità dei canali e tipo di codifica del file.
+     * Se non sono già registrati vengono ricavati con {@link Mp3Info}, di norma leggendo solo le intestazioni.
+     */
+    public TrackMetadata analyze(File file) throws IOException {
+        TrackMetadata metadata = store.get(file);
+        if (metadata != null && metadata.hasDuration()) {
+            return metadata;
+        }
+
+        return coalesce(pendingAnalyses, TrackMetadataStore.keyOf(file), () -> {
+            TrackMetadata stored = store.get(file);
+            if (stored != null && stored.hasDuration()) {
+                return stored;
+            }
+
+            long size = file.length();
+            long lastModified = file.lastModified();
+            Mp3Info info = Mp3Info.read(file);
+            if (info.getSeekIndex() != null) {
+                return store.putSeekIndex(file, size, lastModified, info.getSeekIndex());
+            }
+            return store.putInfo(file, size, lastModified, info);
+        });
+    }
+
+    /**
+     * Come {@link #analyze(File)}, ma senza bloccare il chiamante: i dati già registrati sono restituiti subito,
+     * gli altri vengono ricavati su un piccolo gruppo di thread in background condiviso da tutti i brani.
+     */
+    public CompletableFuture<TrackMetadata> analyzeAsync(File file) {
+        TrackMetadata metadata = store.get(file);
+        if (metadata != null && metadata.hasDuration()) {
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return analyze(file);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, backgroundExecutor);
+    }
+
+    /**
+     * Restituisce l'indice di seek del file leggendolo dall'archivio; se manca o il file è cambiato
+     * lo costruisce scandendo il file e lo registra insieme ai dati che se ne ricavano.
+     */
+    public Mp3SeekIndex getSeekIndex(File file) throws IOException {
+        return coalesce(pendingSeekIndexes, TrackMetadataStore.keyOf(file), () -> {
+            Mp3SeekIndex stored = store.readSeekIndex(file);
+            if (stored != null) {
+                return stored;
+            }
+
+            long size = file.length();
+            long lastModified = file.lastModified();
+            Mp3SeekIndex index = Mp3SeekIndex.build(file);
+            store.putSeekIndex(file, size, lastModified, index);
+            return index;
+        });
+    }
+
+    /**
+     * Esegue l'operazione per la chiave indicata, a meno che non sia già in corso su un altro thread:
+     * in quel caso ne attende il risultato.
+     */
+    private static <T> T coalesce(Map<String, CompletableFuture<T>> pending, String key,
+                                  AnalysisTask<T> task) throws IOException {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> running = pending.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            T result = task.run();
+            future.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key, future);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for MP3 analysis");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @FunctionalInterface
+    private interface AnalysisTask<T> {
+        T run() throws IOException;
+    }
+}
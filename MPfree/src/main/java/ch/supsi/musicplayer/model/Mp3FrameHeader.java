@@ -0,0 +1,119 @@
+package ch.supsi.musicplayer.model;
+
+/**
+ * Intestazione di un frame MPEG audio decodificata a partire dai suoi 4 byte.
+ * Permette di conoscere lunghezza e numero di campioni di un frame senza
+ * doverlo decodificare, ed è quindi usata per scorrere velocemente un file MP3.
+ */
+final class Mp3FrameHeader {
+    static final int MPEG1 = 3;
+    static final int MPEG2 = 2;
+    static final int MPEG25 = 0;
+
+    static final int CHANNEL_MODE_MONO = 3;
+
+    private static final int[][] BITRATES_MPEG1 = {
+        {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},  // Layer I
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},     // Layer II
+        {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}       // Layer III
+    };
+
+    private static final int[][] BITRATES_MPEG2 = {
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},     // Layer I
+        {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},          // Layer II
+        {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}           // Layer III
+    };
+
+    private static final int[] SAMPLE_RATES_MPEG1 = {44100, 48000, 32000};
+
+    private final int version;
+    private final int layer;
+    private final int bitrateKbps;
+    private final int sampleRate;
+    private final int channelMode;
+    private final int frameLength;
+    private final int samplesPerFrame;
+
+    private Mp3FrameHeader(int version, int layer, int bitrateKbps, int sampleRate,
+                           int channelMode, int frameLength, int samplesPerFrame) {
+        this.version = version;
+        this.layer = layer;
+        this.bitrateKbps = bitrateKbps;
+        this.sampleRate = sampleRate;
+        this.channelMode = channelMode;
+        this.frameLength = frameLength;
+        this.samplesPerFrame = samplesPerFrame;
+    }
+
+    /**
+     * Interpreta i 4 byte di un'intestazione MPEG (big-endian).
+     * Restituisce null se i bit di sincronizzazione o uno dei campi non sono validi,
+     * così il chiamante può continuare a cercare il frame successivo.
+     */
+    static Mp3FrameHeader parse(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) return null;
+
+        int version = (header >>> 19) & 0x3;
+        int layerBits = (header >>> 17) & 0x3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 0x3;
+        int padding = (header >>> 9) & 0x1;
+        int channelMode = (header >>> 6) & 0x3;
+
+        if (version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return null;
+        }
+
+        int layer = 4 - layerBits;
+        int bitrateKbps = (version == MPEG1 ? BITRATES_MPEG1 : BITRATES_MPEG2)[layer - 1][bitrateIndex];
+        int sampleRate = SAMPLE_RATES_MPEG1[sampleRateIndex];
+        if (version == MPEG2) {
+            sampleRate /= 2;
+        } else if (version == MPEG25) {
+            sampleRate /= 4;
+        }
+
+        int frameLength;
+        int samplesPerFrame;
+        if (layer == 1) {
+            frameLength = (12 * bitrateKbps * 1000 / sampleRate + padding) * 4;
+            samplesPerFrame = 384;
+        } else if (layer == 2 || version == MPEG1) {
+            frameLength = 144 * bitrateKbps * 1000 / sampleRate + padding;
+            samplesPerFrame = 1152;
+        } else {
+            frameLength = 72 * bitrateKbps * 1000 / sampleRate + padding;
+            samplesPerFrame = 576;
+        }
+
+        return new Mp3FrameHeader(version, layer, bitrateKbps, sampleRate, channelMode, frameLength, samplesPerFrame);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    int getLayer() {
+        return layer;
+    }
+
+    int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannelMode() {
+        return channelMode;
+    }
+
+    int getFrameLength() {
+        return frameLength;
+    }
+
+    int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+}
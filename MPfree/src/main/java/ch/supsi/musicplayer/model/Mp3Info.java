@@ -0,0 +1,167 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Durata e caratteristiche di un file MP3 ricavate leggendo solo l'inizio del file.
+ * Se il primo frame contiene un'intestazione Xing/Info o VBRI con il numero di frame la durata è esatta;
+ * per i file CBR senza intestazione viene calcolata da dimensione e bitrate, escludendo i tag ID3v2 e ID3v1.
+ * Solo quando nessuna delle due strade è affidabile (file VBR senza intestazione) il file viene scandito
+ * per intero, e in quel caso l'indice di seek ottenuto resta disponibile al chiamante.
+ */
+public final class Mp3Info {
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;
+    private static final int CBR_CHECK_FRAMES = 8;
+    private static final int ID3V1_LENGTH = 128;
+
+    private final double durationSeconds;
+    private final int bitrateKbps;
+    private final int sampleRate;
+    private final int channelMode;
+    private final boolean vbr;
+    private final int frameCount;
+    private final Mp3SeekIndex seekIndex;
+
+    private Mp3Info(double durationSeconds, int bitrateKbps, int sampleRate, int channelMode,
+                    boolean vbr, int frameCount, Mp3SeekIndex seekIndex) {
+        this.durationSeconds = durationSeconds;
+        this.bitrateKbps = bitrateKbps;
+        this.sampleRate = sampleRate;
+        this.channelMode = channelMode;
+        this.vbr = vbr;
+        this.frameCount = frameCount;
+        this.seekIndex = seekIndex;
+    }
+
+    public static Mp3Info read(File file) throws IOException {
+        long fileSize = file.length();
+        Mp3FrameHeader first = null;
+        long firstOffset = 0;
+        Mp3VbrHeader vbrHeader;
+        boolean constantBitrate;
+
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            long offset = Mp3SeekIndex.skipId3v2Tag(in);
+
+            int header = 0;
+            for (int i = 0; i < MAX_SYNC_SEARCH && first == null; i++) {
+                int b = in.read();
+                if (b == -1) break;
+                header = (header << 8) | b;
+                offset++;
+                if (i >= 3) {
+                    first = Mp3FrameHeader.parse(header);
+                }
+            }
+            if (first == null) {
+                throw new IOException("No MPEG audio frames found in " + file.getName());
+            }
+            firstOffset = offset - 4;
+
+            byte[] data = new byte[first.getFrameLength()];
+            data[0] = (byte) (header >>> 24);
+            data[1] = (byte) (header >>> 16);
+            data[2] = (byte) (header >>> 8);
+            data[3] = (byte) header;
+            int read = in.readNBytes(data, 4, data.length - 4);
+
+            vbrHeader = Mp3VbrHeader.parse(first, data, read + 4);
+            if (vbrHeader != null && vbrHeader.getFrameCount() > 0) {
+                return fromVbrHeader(first, vbrHeader, fileSize - firstOffset);
+            }
+            constantBitrate = hasConstantBitrate(in, first);
+        }
+
+        if (!constantBitrate || (vbrHeader != null && vbrHeader.isVbr())) {
+            Mp3SeekIndex index = Mp3SeekIndex.build(file);
+            return new Mp3Info(index.getDurationSeconds(), index.getAverageBitrateKbps(), index.getSampleRate(),
+                    index.getChannelMode(), index.isVbr(), index.getFrameCount(), index);
+        }
+
+        long audioBytes = fileSize - firstOffset - id3v1Length(file);
+        if (vbrHeader != null) {
+            audioBytes -= first.getFrameLength();
+        }
+        double duration = Math.max(0, audioBytes) * 8.0 / (first.getBitrateKbps() * 1000.0);
+        return new Mp3Info(duration, first.getBitrateKbps(), first.getSampleRate(),
+                first.getChannelMode(), false, 0, null);
+    }
+
+    private static Mp3Info fromVbrHeader(Mp3FrameHeader first, Mp3VbrHeader vbrHeader, long availableBytes) {
+        double duration = (double) vbrHeader.getFrameCount() * first.getSamplesPerFrame() / first.getSampleRate();
+        long bytes = vbrHeader.getByteCount() > 0 ? vbrHeader.getByteCount() : availableBytes;
+        int bitrate = vbrHeader.isVbr() ? (int) Math.round(bytes * 8 / duration / 1000) : first.getBitrateKbps();
+        return new Mp3Info(duration, bitrate, first.getSampleRate(), first.getChannelMode(),
+                vbrHeader.isVbr(), vbrHeader.getFrameCount(), null);
+    }
+
+    /**
+     * Controlla che i frame successivi al primo siano validi e abbiano lo stesso bitrate,
+     * condizione per poter calcolare la durata dalla dimensione del file.
+     */
+    private static boolean hasConstantBitrate(BufferedInputStream in, Mp3FrameHeader first) throws IOException {
+        byte[] headerBytes = new byte[4];
+        for (int i = 0; i < CBR_CHECK_FRAMES; i++) {
+            if (in.readNBytes(headerBytes, 0, headerBytes.length) < headerBytes.length) {
+                return true;
+            }
+
+            Mp3FrameHeader frame = Mp3FrameHeader.parse(Mp3SeekIndex.toInt(headerBytes));
+            if (frame == null || frame.getSampleRate() != first.getSampleRate()
+                    || frame.getBitrateKbps() != first.getBitrateKbps()) {
+                return false;
+            }
+            Mp3SeekIndex.skipFully(in, frame.getFrameLength() - headerBytes.length);
+        }
+        return true;
+    }
+
+    private static int id3v1Length(File file) throws IOException {
+        if (file.length() < ID3V1_LENGTH) return 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] tag = new byte[3];
+            raf.seek(file.length() - ID3V1_LENGTH);
+            raf.readFully(tag);
+            return tag[0] == 'T' && tag[1] == 'A' && tag[2] == 'G' ? ID3V1_LENGTH : 0;
+        }
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelMode() {
+        return channelMode;
+    }
+
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    /**
+     * @return il numero di frame, oppure 0 se la durata è stata calcolata da dimensione e bitrate
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return l'indice di seek se è stato necessario scandire il file, altrimenti null
+     */
+    Mp3SeekIndex getSeekIndex() {
+        return seekIndex;
+    }
+}
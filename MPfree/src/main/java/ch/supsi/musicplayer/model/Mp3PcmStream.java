@@ -0,0 +1,291 @@
+package ch.supsi.musicplayer.model;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Flusso di campioni PCM a 16 bit ottenuto decodificando un file MP3 con Bitstream e Decoder di JLayer.
+ * I campioni sono restituiti interlacciati per canale e la posizione è tenuta in campioni per canale,
+ * così il chiamante può leggerne esattamente quanti gliene servono e sapere in ogni momento
+ * a che punto della traccia si trova.
+ */
+final class Mp3PcmStream implements Closeable {
+    private final BufferedInputStream input;
+    private final Bitstream bitstream;
+    private final Decoder decoder;
+
+    private short[] frameSamples = new short[0];
+    private int frameLength = 0;
+    private int frameOffset = 0;
+
+    private short[] prefetchBuffer = new short[0];
+    private int prefetchLength = 0;
+    private int prefetchOffset = 0;
+
+    private final int sampleRate;
+    private final int channels;
+    private long samplePosition;
+    private long endSample = Long.MAX_VALUE;
+    private boolean ended = false;
+
+    private Mp3PcmStream(BufferedInputStream input, long samplePosition, Decoder decoder) throws IOException {
+        this.input = input;
+        this.decoder = decoder;
+        this.bitstream = new Bitstream(input);
+        this.samplePosition = samplePosition;
+
+        if (!decodeNextFrame()) {
+            throw new IOException("No decodable MPEG audio frames");
+        }
+        this.sampleRate = decoder.getOutputFrequency();
+        this.channels = decoder.getOutputChannels();
+    }
+
+    /**
+     * Apre il file e lo posiziona sull'istante richiesto.
+     * Con un indice di seek lo stream parte dal confine del frame che contiene la posizione
+     * e i campioni precedenti all'interno di quel frame vengono scartati.
+     */
+    static Mp3PcmStream open(File file, Mp3SeekIndex index, double positionInSeconds) throws IOException {
+        return open(file, index, positionInSeconds, null);
+    }
+
+    /**
+     * Come {@link #open(File, Mp3SeekIndex, double)}, ma se l'intestazione contiene le informazioni
+     * LAME rimuove l'encoder delay e il padding finale, così che lo stream restituisca
+     * solo i campioni udibili della traccia.
+     * Le posizioni restano espresse rispetto a tutti i campioni decodificati dai frame audio.
+     */
+    static Mp3PcmStream open(File file, Mp3SeekIndex index, double positionInSeconds,
+                             Mp3VbrHeader gaplessInfo) throws IOException {
+        return open(file, index, positionInSeconds, gaplessInfo, new Decoder());
+    }
+
+    /**
+     * Come {@link #open(File, Mp3SeekIndex, double, Mp3VbrHeader)}, con il decoder indicato,
+     * ad esempio uno che nei test fallisce su un frame preciso.
+     */
+    static Mp3PcmStream open(File file, Mp3SeekIndex index, double positionInSeconds,
+                             Mp3VbrHeader gaplessInfo, Decoder decoder) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            // Il frame con l'intestazione Xing/Info non è audio: lo stream parte sempre dal primo frame audio
+            long startSample = 0;
+            if (index != null) {
+                startSample = index.seek(input, positionInSeconds).getSamplePosition();
+            } else {
+                Mp3SeekIndex.skipToAudio(input);
+            }
+
+            Mp3PcmStream stream = new Mp3PcmStream(input, startSample, decoder);
+            long targetSample = (long) (positionInSeconds * stream.sampleRate);
+            if (gaplessInfo != null && gaplessInfo.hasGaplessInfo()) {
+                targetSample = Math.max(targetSample, gaplessInfo.getFirstAudioSample());
+                stream.endSample = gaplessInfo.getEndAudioSample();
+            }
+            stream.skipSamples(targetSample - startSample);
+            return stream;
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    AudioFormat getFormat() {
+        return new AudioFormat(sampleRate, 16, channels, true, false);
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Posizione, in campioni per canale, del prossimo campione che verrà letto.
+     */
+    long getSamplePosition() {
+        return samplePosition;
+    }
+
+    /**
+     * Imposta la lunghezza della traccia, se nota ad esempio dall'indice di seek,
+     * così da poter sapere in anticipo quanti campioni mancano alla fine.
+     */
+    void setTotalSamples(long totalSamples) {
+        endSample = Math.min(endSample, totalSamples);
+    }
+
+    /**
+     * @return i campioni per canale che mancano alla fine della traccia, oppure -1 se la lunghezza non è nota
+     */
+    long getRemainingSamples() {
+        return endSample == Long.MAX_VALUE ? -1 : Math.max(0, endSample - samplePosition);
+    }
+
+    /**
+     * Legge fino a {@code length} valori interlacciati.
+     *
+     * @return il numero di valori letti (sempre multiplo del numero di canali) oppure -1 a fine traccia
+     */
+    int read(short[] buffer, int offset, int length) throws IOException {
+        if (samplePosition >= endSample) {
+            return -1;
+        }
+        // Senza lunghezza nota endSample vale Long.MAX_VALUE: il confronto evita l'overflow della moltiplicazione
+        long available = endSample - samplePosition;
+        if (available < length / channels) {
+            length = (int) available * channels;
+        }
+        length -= length % channels;
+        int total = 0;
+
+        while (total < length) {
+            if (prefetchOffset < prefetchLength) {
+                int count = Math.min(length - total, prefetchLength - prefetchOffset);
+                System.arraycopy(prefetchBuffer, prefetchOffset, buffer, offset + total, count);
+                prefetchOffset += count;
+                total += count;
+                continue;
+            }
+            if (frameOffset == frameLength && !decodeNextFrame()) {
+                break;
+            }
+            int count = Math.min(length - total, frameLength - frameOffset);
+            System.arraycopy(frameSamples, frameOffset, buffer, offset + total, count);
+            frameOffset += count;
+            total += count;
+        }
+
+        samplePosition += total / channels;
+        return total == 0 && ended ? -1 : total;
+    }
+
+    /**
+     * Scarta i prossimi campioni per canale senza restituirli.
+     */
+    void skipSamples(long samples) throws IOException {
+        long remaining = samples * channels;
+        while (remaining > 0) {
+            if (prefetchOffset < prefetchLength) {
+                int count = (int) Math.min(remaining, prefetchLength - prefetchOffset);
+                prefetchOffset += count;
+                remaining -= count;
+                samplePosition += count / channels;
+                continue;
+            }
+            if (frameOffset == frameLength && !decodeNextFrame()) {
+                break;
+            }
+            int count = (int) Math.min(remaining, frameLength - frameOffset);
+            frameOffset += count;
+            remaining -= count;
+            samplePosition += count / channels;
+        }
+    }
+
+    /**
+     * Decodifica in anticipo i primi millisecondi ancora da leggere e li tiene in memoria,
+     * così le letture successive non devono attendere il decoder né l'accesso al disco.
+     * Da chiamare prima di iniziare a leggere, mentre un'altra traccia è ancora in riproduzione.
+     */
+    void prefetch(int millis) throws IOException {
+        int wanted = (int) ((long) sampleRate * millis / 1000) * channels;
+        if (prefetchBuffer.length < wanted) {
+            prefetchBuffer = Arrays.copyOf(prefetchBuffer, wanted);
+        }
+
+        while (prefetchLength < wanted) {
+            if (frameOffset == frameLength && !decodeNextFrame()) {
+                break;
+            }
+            int count = Math.min(wanted - prefetchLength, frameLength - frameOffset);
+            System.arraycopy(frameSamples, frameOffset, prefetchBuffer, prefetchLength, count);
+            frameOffset += count;
+            prefetchLength += count;
+        }
+    }
+
+    /**
+     * Decodifica il frame successivo nel buffer interno.
+     * I dati senza un'intestazione di frame valida vengono saltati; un frame che il decoder non riesce
+     * a ricostruire, perché corrotto o per il bit reservoir mancante subito dopo un seek, viene sostituito
+     * da silenzio della stessa lunghezza, così la posizione resta allineata alla traccia.
+     */
+    private boolean decodeNextFrame() throws IOException {
+        if (ended) return false;
+
+        try {
+            while (true) {
+                Header header = bitstream.readFrame();
+                if (header == null) {
+                    ended = true;
+                    return false;
+                }
+
+                try {
+                    SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                    int expected = samplesPerFrame(header) * output.getChannelCount();
+                    int decoded = output.getBufferLength();
+
+                    int needed = Math.max(expected, decoded);
+                    if (frameSamples.length < needed) {
+                        frameSamples = new short[needed];
+                    }
+                    System.arraycopy(output.getBuffer(), 0, frameSamples, 0, decoded);
+                    if (decoded < expected) {
+                        Arrays.fill(frameSamples, decoded, expected, (short) 0);
+                    }
+                    frameLength = needed;
+                    frameOffset = 0;
+                    return true;
+                } catch (DecoderException | ArrayIndexOutOfBoundsException e) {
+                    // Frame non decodificabile: silenzio della stessa lunghezza. Con dati corrotti
+                    // i decoder di JLayer possono anche uscire dai limiti delle loro tabelle.
+                    int expected = samplesPerFrame(header) * (header.mode() == Header.SINGLE_CHANNEL ? 1 : 2);
+                    if (frameSamples.length < expected) {
+                        frameSamples = new short[expected];
+                    }
+                    Arrays.fill(frameSamples, 0, expected, (short) 0);
+                    frameLength = expected;
+                    frameOffset = 0;
+                    return true;
+                } finally {
+                    bitstream.closeFrame();
+                }
+            }
+        } catch (BitstreamException e) {
+            ended = true;
+            return false;
+        }
+    }
+
+    private static int samplesPerFrame(Header header) {
+        if (header.layer() == 1) return 384;
+        if (header.layer() == 3 && header.version() != Header.MPEG1) return 576;
+        return 1152;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bitstream.close();
+        } catch (BitstreamException e) {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Indice di seek di una traccia MP3.
+ * Memorizza l'offset in byte di un frame ogni {@link #DEFAULT_INTERVAL_MS} millisecondi,
+ * così che seek e ripresa possano posizionarsi direttamente su un confine di frame
+ * tramite ricerca binaria, invece di stimare la posizione in base alla dimensione del file.
+ */
+public final class Mp3SeekIndex {
+    public static final int DEFAULT_INTERVAL_MS = 500;
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;
+    private static final int MAX_FRAME_LENGTH = 8 * 1024;
+
+    private final int sampleRate;
+    private final long[] byteOffsets;
+    private final long[] samplePositions;
+    private final long totalSamples;
+    private final int frameCount;
+    private final long audioBytes;
+    private final int channelMode;
+    private final boolean vbr;
+
+    private Mp3SeekIndex(int sampleRate, long[] byteOffsets, long[] samplePositions,
+                         long totalSamples, int frameCount, long audioBytes, int channelMode, boolean vbr) {
+        this.sampleRate = sampleRate;
+        this.byteOffsets = byteOffsets;
+        this.samplePositions = samplePositions;
+        this.totalSamples = totalSamples;
+        this.frameCount = frameCount;
+        this.audioBytes = audioBytes;
+        this.channelMode = channelMode;
+        this.vbr = vbr;
+    }
+
+    /**
+     * Costruisce l'indice leggendo solo le intestazioni dei frame del file.
+     * Il contenuto dei frame viene saltato, quindi la scansione non decodifica l'audio.
+     * I frame con una frequenza di campionamento diversa dal primo vengono scartati
+     * come falsi sync (ad esempio dati di copertina non racchiusi in un tag).
+     * Come in {@link Mp3Info}, un primo frame con intestazione Xing/Info o VBRI non è audio e non viene
+     * contato: posizioni e durata partono dal primo frame audio.
+     */
+    public static Mp3SeekIndex build(File file) throws IOException {
+        return build(file, DEFAULT_INTERVAL_MS);
+    }
+
+    public static Mp3SeekIndex build(File file, int intervalMs) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), SCAN_BUFFER_SIZE)) {
+            long offset = skipId3v2Tag(in);
+
+            long[] offsets = new long[256];
+            long[] samples = new long[256];
+            int entries = 0;
+
+            int sampleRate = 0;
+            long sampleInterval = 0;
+            long nextIndexedSample = 0;
+            long totalSamples = 0;
+            int frameCount = 0;
+            long audioBytes = 0;
+            int channelMode = 0;
+            int firstBitrate = 0;
+            boolean vbr = false;
+
+            int header = 0;
+            int bytesInHeader = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                header = (header << 8) | b;
+                offset++;
+                if (++bytesInHeader < 4) continue;
+
+                Mp3FrameHeader frame = Mp3FrameHeader.parse(header);
+                if (frame == null || (sampleRate != 0 && frame.getSampleRate() != sampleRate)) {
+                    continue;
+                }
+
+                long frameOffset = offset - 4;
+                long bodyLength = frame.getFrameLength() - 4;
+                if (sampleRate == 0) {
+                    sampleRate = frame.getSampleRate();
+                    sampleInterval = (long) sampleRate * intervalMs / 1000;
+                    channelMode = frame.getChannelMode();
+                    firstBitrate = frame.getBitrateKbps();
+
+                    byte[] data = new byte[frame.getFrameLength()];
+                    writeInt(data, header);
+                    int read = in.readNBytes(data, 4, data.length - 4);
+                    offset += read;
+                    bodyLength = 0;
+                    header = 0;
+                    bytesInHeader = 0;
+                    if (Mp3VbrHeader.parse(frame, data, read + 4) != null) {
+                        // Il bitrate del frame dell'intestazione non dice nulla su quello dell'audio
+                        firstBitrate = -1;
+                        continue;
+                    }
+                }
+                if (firstBitrate < 0) {
+                    firstBitrate = frame.getBitrateKbps();
+                }
+                vbr |= frame.getBitrateKbps() != firstBitrate;
+
+                if (totalSamples >= nextIndexedSample) {
+                    if (entries == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, entries * 2);
+                        samples = Arrays.copyOf(samples, entries * 2);
+                    }
+                    offsets[entries] = frameOffset;
+                    samples[entries] = totalSamples;
+                    entries++;
+                    nextIndexedSample = totalSamples + sampleInterval;
+                }
+
+                totalSamples += frame.getSamplesPerFrame();
+                frameCount++;
+                audioBytes += frame.getFrameLength();
+
+                offset += skipFully(in, bodyLength);
+                header = 0;
+                bytesInHeader = 0;
+            }
+
+            if (frameCount == 0) {
+                throw new IOException("No MPEG audio frames found in " + file.getName());
+            }
+
+            return new Mp3SeekIndex(sampleRate, Arrays.copyOf(offsets, entries),
+                    Arrays.copyOf(samples, entries), totalSamples, frameCount, audioBytes, channelMode, vbr);
+        }
+    }
+
+    /**
+     * Posiziona lo stream all'inizio del frame che contiene l'istante richiesto.
+     * Lo stream deve trovarsi all'inizio del file: si salta direttamente al punto
+     * indicizzato precedente e da lì si avanza leggendo solo le intestazioni,
+     * al massimo per un intervallo dell'indice.
+     *
+     * @return la posizione del frame su cui si è fermato lo stream
+     */
+    public Position seek(BufferedInputStream in, double seconds) throws IOException {
+        long targetSample = Math.max(0, Math.min(totalSamples, (long) (seconds * sampleRate)));
+
+        int entry = findEntry(targetSample);
+        long offset = byteOffsets[entry];
+        long sample = samplePositions[entry];
+        skipFully(in, offset);
+
+        byte[] headerBytes = new byte[4];
+        while (true) {
+            in.mark(headerBytes.length);
+            if (in.readNBytes(headerBytes, 0, headerBytes.length) < headerBytes.length) {
+                in.reset();
+                break;
+            }
+
+            Mp3FrameHeader frame = Mp3FrameHeader.parse(toInt(headerBytes));
+            if (frame == null || sample + frame.getSamplesPerFrame() > targetSample) {
+                in.reset();
+                break;
+            }
+
+            offset += frame.getFrameLength();
+            sample += frame.getSamplesPerFrame();
+            skipFully(in, frame.getFrameLength() - headerBytes.length);
+        }
+
+        return new Position(offset, sample, sampleRate);
+    }
+
+    private int findEntry(long targetSample) {
+        int index = Arrays.binarySearch(samplePositions, targetSample);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    public double getDurationSeconds() {
+        return (double) totalSamples / sampleRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Bitrate medio calcolato dai byte dei frame audio, valido anche per i file VBR.
+     */
+    public int getAverageBitrateKbps() {
+        double seconds = getDurationSeconds();
+        return seconds > 0 ? (int) Math.round(audioBytes * 8 / seconds / 1000) : 0;
+    }
+
+    public int getChannelMode() {
+        return channelMode;
+    }
+
+    /**
+     * @return true se non tutti i frame hanno lo stesso bitrate
+     */
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    /**
+     * Scrive l'indice in forma binaria, per poterlo riutilizzare senza riscandire il file.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sampleRate);
+        out.writeLong(totalSamples);
+        out.writeInt(frameCount);
+        out.writeLong(audioBytes);
+        out.writeInt(channelMode);
+        out.writeBoolean(vbr);
+        out.writeInt(byteOffsets.length);
+        for (int i = 0; i < byteOffsets.length; i++) {
+            out.writeLong(byteOffsets[i]);
+            out.writeLong(samplePositions[i]);
+        }
+    }
+
+    static Mp3SeekIndex readFrom(DataInput in) throws IOException {
+        int sampleRate = in.readInt();
+        long totalSamples = in.readLong();
+        int frameCount = in.readInt();
+        long audioBytes = in.readLong();
+        int channelMode = in.readInt();
+        boolean vbr = in.readBoolean();
+        int entries = in.readInt();
+        if (sampleRate <= 0 || entries <= 0) {
+            throw new IOException("Invalid seek index");
+        }
+
+        long[] offsets = new long[entries];
+        long[] samples = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            offsets[i] = in.readLong();
+            samples[i] = in.readLong();
+        }
+        return new Mp3SeekIndex(sampleRate, offsets, samples, totalSamples, frameCount, audioBytes, channelMode, vbr);
+    }
+
+    /**
+     * Posiziona lo stream all'inizio dell'audio quando l'indice non è disponibile: salta il tag ID3v2
+     * e, se il primo frame contiene un'intestazione Xing/Info o VBRI, anche quel frame,
+     * così che le posizioni partano dallo stesso campione usato dall'indice.
+     */
+    static void skipToAudio(BufferedInputStream in) throws IOException {
+        skipId3v2Tag(in);
+        in.mark(MAX_SYNC_SEARCH + MAX_FRAME_LENGTH);
+
+        int header = 0;
+        for (int i = 0; i < MAX_SYNC_SEARCH; i++) {
+            int b = in.read();
+            if (b == -1) break;
+            header = (header << 8) | b;
+            if (i < 3) continue;
+
+            Mp3FrameHeader frame = Mp3FrameHeader.parse(header);
+            if (frame == null) continue;
+
+            byte[] data = new byte[frame.getFrameLength()];
+            writeInt(data, header);
+            int read = in.readNBytes(data, 4, data.length - 4);
+            if (Mp3VbrHeader.parse(frame, data, read + 4) != null) {
+                return;
+            }
+            break;
+        }
+        in.reset();
+    }
+
+    /**
+     * Salta l'eventuale tag ID3v2 all'inizio del file, incluso il footer opzionale.
+     *
+     * @return il numero di byte saltati
+     */
+    static long skipId3v2Tag(BufferedInputStream in) throws IOException {
+        byte[] tagHeader = new byte[10];
+        in.mark(tagHeader.length);
+        int read = in.readNBytes(tagHeader, 0, tagHeader.length);
+
+        if (read < tagHeader.length || tagHeader[0] != 'I' || tagHeader[1] != 'D' || tagHeader[2] != '3') {
+            in.reset();
+            return 0;
+        }
+
+        long tagSize = ((tagHeader[6] & 0x7F) << 21) | ((tagHeader[7] & 0x7F) << 14)
+                | ((tagHeader[8] & 0x7F) << 7) | (tagHeader[9] & 0x7F);
+        if ((tagHeader[5] & 0x10) != 0) {
+            tagSize += 10;
+        }
+
+        return tagHeader.length + skipFully(in, tagSize);
+    }
+
+    static long skipFully(InputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) break;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return bytes - remaining;
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    static int toInt(byte[] bytes) {
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Confine di frame individuato dall'indice: offset nel file e primo campione del frame.
+     */
+    public static final class Position {
+        private final long byteOffset;
+        private final long samplePosition;
+        private final int sampleRate;
+
+        Position(long byteOffset, long samplePosition, int sampleRate) {
+            this.byteOffset = byteOffset;
+            this.samplePosition = samplePosition;
+            this.sampleRate = sampleRate;
+        }
+
+        public long getByteOffset() {
+            return byteOffset;
+        }
+
+        public long getSamplePosition() {
+            return samplePosition;
+        }
+
+        public double getSeconds() {
+            return (double) samplePosition / sampleRate;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Intestazione Xing/Info o VBRI scritta dagli encoder nel primo frame di un file MP3,
+ * con l'eventuale estensione LAME.
+ * Il frame che la contiene non fa parte dell'audio e riporta il numero esatto di frame e di byte
+ * della traccia; l'estensione LAME indica inoltre quanti campioni di silenzio l'encoder ha aggiunto
+ * all'inizio (encoder delay) e alla fine (padding) della traccia.
+ */
+final class Mp3VbrHeader {
+    /** Ritardo introdotto dal banco di filtri di sintesi di un decoder MP3 standard. */
+    static final int DECODER_DELAY = 529;
+
+    private static final int XING_FLAG_FRAMES = 0x1;
+    private static final int XING_FLAG_BYTES = 0x2;
+    private static final int XING_FLAG_TOC = 0x4;
+    private static final int XING_FLAG_QUALITY = 0x8;
+    private static final int LAME_TAG_OFFSET = 120;
+    private static final int VBRI_OFFSET = 4 + 32;
+    private static final int VBRI_LENGTH = 18;
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;
+
+    private final int samplesPerFrame;
+    private final int frameCount;
+    private final long byteCount;
+    private final boolean vbr;
+    private final int encoderDelay;
+    private final int encoderPadding;
+
+    private Mp3VbrHeader(int samplesPerFrame, int frameCount, long byteCount, boolean vbr,
+                         int encoderDelay, int encoderPadding) {
+        this.samplesPerFrame = samplesPerFrame;
+        this.frameCount = frameCount;
+        this.byteCount = byteCount;
+        this.vbr = vbr;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+    }
+
+    /**
+     * Legge l'intestazione dal primo frame del file.
+     *
+     * @return l'intestazione trovata oppure null se il primo frame è un normale frame audio
+     */
+    static Mp3VbrHeader read(File file) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            Mp3SeekIndex.skipId3v2Tag(in);
+
+            int header = 0;
+            for (int i = 0; i < MAX_SYNC_SEARCH; i++) {
+                int b = in.read();
+                if (b == -1) return null;
+                header = (header << 8) | b;
+                if (i < 3) continue;
+
+                Mp3FrameHeader frame = Mp3FrameHeader.parse(header);
+                if (frame != null) {
+                    byte[] data = new byte[frame.getFrameLength()];
+                    data[0] = (byte) (header >>> 24);
+                    data[1] = (byte) (header >>> 16);
+                    data[2] = (byte) (header >>> 8);
+                    data[3] = (byte) header;
+                    int read = in.readNBytes(data, 4, data.length - 4);
+                    return parse(frame, data, read + 4);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Cerca l'intestazione nel contenuto del primo frame, di cui {@code length} byte sono validi.
+     *
+     * @return l'intestazione trovata oppure null se il frame è un normale frame audio
+     */
+    static Mp3VbrHeader parse(Mp3FrameHeader frame, byte[] data, int length) {
+        int offset = 4 + sideInfoSize(frame);
+        if (offset + 8 > length || !isXingTag(data, offset)) {
+            return parseVbri(frame, data, length);
+        }
+
+        int flags = readInt(data, offset + 4);
+        int position = offset + 8;
+        int frameCount = 0;
+        if ((flags & XING_FLAG_FRAMES) != 0) {
+            if (position + 4 > length) return null;
+            frameCount = readInt(data, position);
+            position += 4;
+        }
+        long byteCount = 0;
+        if ((flags & XING_FLAG_BYTES) != 0) {
+            if (position + 4 > length) return null;
+            byteCount = readInt(data, position) & 0xFFFFFFFFL;
+            position += 4;
+        }
+        position += (flags & XING_FLAG_TOC) != 0 ? 100 : 0;
+        position += (flags & XING_FLAG_QUALITY) != 0 ? 4 : 0;
+
+        int encoderDelay = 0;
+        int encoderPadding = 0;
+        int lameOffset = offset + LAME_TAG_OFFSET;
+        if (position <= lameOffset && lameOffset + 24 <= length && isEncoderTag(data, lameOffset)) {
+            encoderDelay = ((data[lameOffset + 21] & 0xFF) << 4) | ((data[lameOffset + 22] & 0xFF) >>> 4);
+            encoderPadding = ((data[lameOffset + 22] & 0x0F) << 8) | (data[lameOffset + 23] & 0xFF);
+        }
+
+        boolean vbr = data[offset] == 'X';
+        return new Mp3VbrHeader(frame.getSamplesPerFrame(), frameCount, byteCount, vbr, encoderDelay, encoderPadding);
+    }
+
+    /**
+     * L'intestazione VBRI dell'encoder Fraunhofer si trova sempre 32 byte dopo l'intestazione del frame
+     * e riporta byte e frame della traccia; non contiene informazioni per la riproduzione senza pause.
+     */
+    private static Mp3VbrHeader parseVbri(Mp3FrameHeader frame, byte[] data, int length) {
+        if (VBRI_OFFSET + VBRI_LENGTH > length || data[VBRI_OFFSET] != 'V' || data[VBRI_OFFSET + 1] != 'B'
+                || data[VBRI_OFFSET + 2] != 'R' || data[VBRI_OFFSET + 3] != 'I') {
+            return null;
+        }
+
+        long byteCount = readInt(data, VBRI_OFFSET + 10) & 0xFFFFFFFFL;
+        int frameCount = readInt(data, VBRI_OFFSET + 14);
+        return new Mp3VbrHeader(frame.getSamplesPerFrame(), frameCount, byteCount, true, 0, 0);
+    }
+
+    private static int sideInfoSize(Mp3FrameHeader frame) {
+        boolean mono = frame.getChannelMode() == Mp3FrameHeader.CHANNEL_MODE_MONO;
+        if (frame.getVersion() == Mp3FrameHeader.MPEG1) {
+            return mono ? 17 : 32;
+        }
+        return mono ? 9 : 17;
+    }
+
+    private static boolean isXingTag(byte[] data, int offset) {
+        return (data[offset] == 'X' && data[offset + 1] == 'i' && data[offset + 2] == 'n' && data[offset + 3] == 'g')
+                || (data[offset] == 'I' && data[offset + 1] == 'n' && data[offset + 2] == 'f' && data[offset + 3] == 'o');
+    }
+
+    /**
+     * L'estensione inizia con il nome dell'encoder ("LAME3.100", "Lavc58..."):
+     * si controlla che i primi caratteri siano lettere, altrimenti i byte non sono un tag valido.
+     */
+    private static boolean isEncoderTag(byte[] data, int offset) {
+        for (int i = 0; i < 4; i++) {
+            if (!Character.isLetter((char) (data[offset + i] & 0xFF))) return false;
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    boolean hasGaplessInfo() {
+        return frameCount > 0 && (encoderDelay > 0 || encoderPadding > 0);
+    }
+
+    /**
+     * Primo campione udibile nella sequenza decodificata dai frame audio, che esclude il frame
+     * dell'intestazione e comprende l'encoder delay e il ritardo del decoder.
+     */
+    long getFirstAudioSample() {
+        return encoderDelay + DECODER_DELAY;
+    }
+
+    /**
+     * Campione, nella stessa sequenza, successivo all'ultimo campione udibile.
+     */
+    long getEndAudioSample() {
+        long decodedSamples = (long) frameCount * samplesPerFrame;
+        return Math.min(decodedSamples, decodedSamples - encoderPadding + DECODER_DELAY);
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return i byte della traccia dichiarati dall'encoder, oppure 0 se non sono indicati
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return true per le intestazioni "Xing" e VBRI, false per "Info" che gli encoder scrivono nei file CBR
+     */
+    boolean isVbr() {
+        return vbr;
+    }
+
+    int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    int getEncoderDelay() {
+        return encoderDelay;
+    }
+
+    int getEncoderPadding() {
+        return encoderPadding;
+    }
+}
@@ -1,46 +1,161 @@
 package ch.supsi.musicplayer.model;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.collections.ObservableList;
+
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Playlist {
+    private static final String SETTINGS_FILE = ".playlist.properties";
+    private static final String GAPLESS_KEY = "gapless";
+    // Attesa dopo l'ultima rimozione o spostamento prima di riscrivere l'elenco salvato
+    private static final long MANIFEST_REWRITE_DELAY_MS = 300;
+    private static final long MANIFEST_FLUSH_TIMEOUT_SECONDS = 5;
+
+    // Un solo thread scrive gli elenchi di tutte le playlist, nell'ordine in cui le scritture sono richieste
+    private static final ScheduledThreadPoolExecutor MANIFEST_WRITER = createManifestWriter();
+    // Playlist con una riscrittura dell'elenco in attesa
+    private static final Set<Playlist> PENDING_MANIFEST_REWRITES = ConcurrentHashMap.newKeySet();
+
     private String name;
-    private List<SongModel> songs;
+    // Ordine dei brani in un albero indicizzato, osservabile direttamente dalle viste
+    private final SongSequence songs = new SongSequence();
+    // Brani indicizzati per percorso del file, che identifica il brano all'interno della playlist
+    private final Map<String, SongModel> songsByPath = new HashMap<>();
     private File playlistDirectory;
+    private boolean gapless = false;
+    private ScheduledFuture<?> scheduledManifestRewrite;
+    // Impostato quando la playlist viene eliminata: le scritture ancora in coda vengono tralasciate
+    private volatile boolean manifestDiscarded = false;
+
+    // Durata totale tenuta aggiornata a ogni modifica invece di essere ricalcolata sommando tutti i brani:
+    // i brani con durata non ancora nota vengono analizzati in background e sommati quando arrivano
+    private final Object durationLock = new Object();
+    private final Set<SongModel> pendingDurations = new HashSet<>();
+    private long knownDuration = 0;
+    private final AtomicBoolean durationPublishScheduled = new AtomicBoolean(false);
+    // Aggiornate solo sul thread JavaFX
+    private final ReadOnlyIntegerWrapper totalDurationProperty = new ReadOnlyIntegerWrapper(this, "totalDuration");
+    private final ReadOnlyIntegerWrapper pendingDurationCountProperty =
+            new ReadOnlyIntegerWrapper(this, "pendingDurationCount");
 
     public Playlist(String name) {
         this.name = name;
-        this.songs = new ArrayList<>();
     }
     
     public Playlist(File directory) {
         this.playlistDirectory = directory;
         this.name = directory.getName();
-        this.songs = new ArrayList<>();
+        loadSettings();
         loadSongsFromDirectory();
+        initDurationProperties();
+    }
+
+    /**
+     * Crea la playlist di una cartella con brani già costruiti, ad esempio in parallelo
+     * dallo {@link LibraryScanner}.
+     */
+    Playlist(File directory, List<SongModel> songs) {
+        this.playlistDirectory = directory;
+        this.name = directory.getName();
+        loadSettings();
+        appendSongs(songs);
+        initDurationProperties();
     }
  
     private boolean loadSongsFromDirectory() {
-        if (playlistDirectory != null && playlistDirectory.exists() && playlistDirectory.isDirectory()) {
-            File[] files = playlistDirectory.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp3"));
+        List<SongModel> loaded = new ArrayList<>();
+        for (File file : loadSongFiles(playlistDirectory)) {
+            loaded.add(new SongModel(file));
+        }
+        appendSongs(loaded);
+        return !songs.isEmpty();
+    }
+
+    /**
+     * Aggiunge in fondo i brani non ancora presenti con un'unica modifica della sequenza.
+     *
+     * @return i brani effettivamente aggiunti
+     */
+    private List<SongModel> appendSongs(List<SongModel> candidates) {
+        List<SongModel> added = new ArrayList<>(candidates.size());
+        synchronized (durationLock) {
+            for (SongModel song : candidates) {
+                if (songsByPath.putIfAbsent(keyOf(song), song) == null) {
+                    added.add(song);
+                    trackDuration(song);
+                }
+            }
+        }
+        songs.appendAll(added);
+        return added;
+    }
+
+    private void initDurationProperties() {
+        synchronized (durationLock) {
+            totalDurationProperty.set((int) knownDuration);
+            pendingDurationCountProperty.set(pendingDurations.size());
+        }
+    }
+
+    /**
+     * Brani di una playlist salvata: quelli dell'elenco M3U8 della cartella se presente, altrimenti,
+     * per le playlist create prima degli elenchi, i file MP3 copiati nella cartella stessa.
+     */
+    static List<File> loadSongFiles(File directory) {
+        if (directory != null && PlaylistManifest.exists(directory)) {
+            try {
+                return PlaylistManifest.read(directory);
+            } catch (IOException e) {
+                System.err.println("Failed to read playlist manifest: " + directory.getPath());
+                e.printStackTrace();
+            }
+        }
+        return listSongFiles(directory);
+    }
+
+    /**
+     * @return i file MP3 leggibili contenuti nella cartella, oppure una lista vuota se la cartella non esiste
+     */
+    static List<File> listSongFiles(File directory) {
+        List<File> songFiles = new ArrayList<>();
+        if (directory != null && directory.exists() && directory.isDirectory()) {
+            File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp3"));
             
             if (files != null) {
                 for (File file : files) {
                     if (file.isFile() && file.canRead()) {
-                        songs.add(new SongModel(file));
+                        songFiles.add(file);
                     }
                 }
             }
-            
-            return !songs.isEmpty();
         }
-        return false;
+        return songFiles;
     }
     
     public boolean saveToFilesystem(String basePath) throws IOException {
@@ -52,70 +167,189 @@ public class Playlist {
                 Files.createDirectories(playlistPath);
             }
         }
+        saveManifest();
         return true;
     }
    
     public void addSong(SongModel song) {
-        // Verifica che la canzone non sia già presente
-        boolean alreadyExists = false;
-        for (SongModel existingSong : songs) {
-            if (existingSong.getFile().getName().equals(song.getFile().getName())) {
-                alreadyExists = true;
-                break;
-            }
+        addSongs(Collections.singletonList(song));
+    }
+
+    /**
+     * Aggiunge in fondo i brani indicati, tralasciando i file già presenti, con un'unica modifica
+     * della lista osservabile; le righe vengono aggiunte all'elenco salvato in background.
+     */
+    public void addSongs(List<SongModel> newSongs) {
+        List<SongModel> added = appendSongs(newSongs);
+        if (added.isEmpty()) {
+            return;
         }
         
-        if (!alreadyExists) {
-            songs.add(song);
-        }
+        appendToManifest(added);
+        publishDuration();
     }
     
     public void removeSong(SongModel song) {
-        songs.remove(song);
+        if (!songs.remove(song)) {
+            return;
+        }
+        
+        songsByPath.remove(keyOf(song));
+        scheduleManifestRewrite();
+        synchronized (durationLock) {
+            // Se la durata non era ancora arrivata non è mai stata sommata
+            if (!pendingDurations.remove(song)) {
+                knownDuration -= song.getKnownDuration();
+            }
+        }
+        publishDuration();
+    }
+
+    /**
+     * @return true se la playlist contiene già il file
+     */
+    public boolean containsSong(File file) {
+        return songsByPath.containsKey(file.getAbsolutePath());
+    }
+
+    /**
+     * @return la posizione del brano nella playlist, oppure -1 se il brano non ne fa parte
+     */
+    public int indexOf(SongModel song) {
+        return songs.indexOf(song);
+    }
+
+    /**
+     * @return la posizione del brano con il file indicato, oppure -1 se nessun brano della playlist lo usa
+     */
+    public int indexOf(File file) {
+        SongModel song = songsByPath.get(file.getAbsolutePath());
+        return song != null ? songs.indexOf(song) : -1;
+    }
+
+    private static String keyOf(SongModel song) {
+        return song.getFile().getAbsolutePath();
+    }
+
+    /**
+     * Somma la durata del brano se è nota, altrimenti ne avvia l'analisi in background.
+     * Va chiamato tenendo durationLock.
+     */
+    private void trackDuration(SongModel song) {
+        if (song.isDurationKnown()) {
+            knownDuration += song.getKnownDuration();
+        } else if (pendingDurations.add(song)) {
+            song.resolveDuration().thenAccept(seconds -> onDurationResolved(song, seconds));
+        }
+    }
+
+    private void onDurationResolved(SongModel song, int seconds) {
+        synchronized (durationLock) {
+            // Il brano potrebbe essere stato rimosso nel frattempo
+            if (!pendingDurations.remove(song)) return;
+            knownDuration += seconds;
+        }
+        publishDuration();
+    }
+
+    /**
+     * Aggiorna le proprietà osservabili della durata al prossimo giro del thread JavaFX;
+     * le durate che arrivano insieme producono un solo aggiornamento.
+     */
+    private void publishDuration() {
+        if (durationPublishScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                durationPublishScheduled.set(false);
+                synchronized (durationLock) {
+                    totalDurationProperty.set((int) knownDuration);
+                    pendingDurationCountProperty.set(pendingDurations.size());
+                }
+            });
+        }
     }
     
     public boolean moveSongUp(SongModel song) {
-        int index = songs.indexOf(song);
+        int index = indexOf(song);
         
         if (index <= 0) {
             return false;
         }
         
-        Collections.swap(songs, index, index - 1);
-        return true;
+        boolean moved = songs.move(song, index - 1);
+        if (moved) {
+            scheduleManifestRewrite();
+        }
+        return moved;
     }
     
     public boolean moveSongDown(SongModel song) {
-        int index = songs.indexOf(song);
+        int index = indexOf(song);
         
         if (index < 0 || index >= songs.size() - 1) {
             return false;
         }
         
-        Collections.swap(songs, index, index + 1);
-        return true;
+        boolean moved = songs.move(song, index + 1);
+        if (moved) {
+            scheduleManifestRewrite();
+        }
+        return moved;
     }
     
     public boolean moveSongToPosition(SongModel song, int newIndex) {
-        int currentIndex = songs.indexOf(song);
+        int currentIndex = indexOf(song);
         
         if (currentIndex < 0 || currentIndex == newIndex || newIndex < 0 || newIndex >= songs.size()) {
             return false;
         }
         
-        songs.remove(currentIndex);
-        songs.add(newIndex, song);
-        return true;
+        boolean moved = songs.move(song, newIndex);
+        if (moved) {
+            scheduleManifestRewrite();
+        }
+        return moved;
     }
  
-    public List<SongModel> getSongs() {
-        return Collections.unmodifiableList(songs);
+    /**
+     * Brani della playlist in ordine, come lista osservabile in sola lettura che segue le modifiche della playlist:
+     * le viste possono usarla direttamente e ricevono solo le singole aggiunte, rimozioni e spostamenti.
+     * Le modifiche vengono notificate sul thread che le esegue, di norma il thread JavaFX.
+     */
+    public ObservableList<SongModel> getSongs() {
+        return songs;
     }
     
+    /**
+     * @return la somma in secondi delle durate già note; non legge mai dal disco.
+     *         I brani ancora da analizzare sono contati da {@link #getPendingDurationCount()}
+     */
     public int getTotalDuration() {
-        return songs.stream()
-                .mapToInt(SongModel::getDuration)
-                .sum();
+        synchronized (durationLock) {
+            return (int) knownDuration;
+        }
+    }
+
+    /**
+     * @return il numero di brani la cui durata è ancora in fase di analisi
+     */
+    public int getPendingDurationCount() {
+        synchronized (durationLock) {
+            return pendingDurations.size();
+        }
+    }
+
+    /**
+     * Durata totale già nota in secondi, da usare solo sul thread JavaFX.
+     */
+    public ReadOnlyIntegerProperty totalDurationProperty() {
+        return totalDurationProperty.getReadOnlyProperty();
+    }
+
+    /**
+     * Brani con durata ancora da analizzare, da usare solo sul thread JavaFX.
+     */
+    public ReadOnlyIntegerProperty pendingDurationCountProperty() {
+        return pendingDurationCountProperty.getReadOnlyProperty();
     }
  
     public String getName() {
@@ -126,6 +360,163 @@ public class Playlist {
         this.name = name;
     }
 
+    public boolean isGapless() {
+        return gapless;
+    }
+
+    /**
+     * Attiva o disattiva la riproduzione senza pause tra le tracce della playlist.
+     * L'impostazione viene salvata nella cartella della playlist, se esiste.
+     */
+    public void setGapless(boolean gapless) {
+        this.gapless = gapless;
+        saveSettings();
+    }
+
+    /**
+     * Aggiunge i brani all'elenco salvato in background; una playlist creata prima degli elenchi
+     * viene salvata per intero.
+     */
+    private void appendToManifest(List<SongModel> added) {
+        if (playlistDirectory == null) return;
+
+        File directory = playlistDirectory;
+        MANIFEST_WRITER.execute(() -> {
+            if (manifestDiscarded || !directory.isDirectory()) return;
+
+            if (!PlaylistManifest.exists(directory)) {
+                scheduleManifestRewrite();
+                return;
+            }
+            try {
+                PlaylistManifest.append(directory, added);
+            } catch (IOException e) {
+                System.err.println("Failed to update playlist manifest: " + directory.getPath());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Riscrive l'elenco salvato poco dopo l'ultima modifica: più rimozioni o spostamenti ravvicinati,
+     * ad esempio durante un trascinamento, producono una sola scrittura.
+     */
+    private void scheduleManifestRewrite() {
+        synchronized (PENDING_MANIFEST_REWRITES) {
+            if (scheduledManifestRewrite != null) {
+                scheduledManifestRewrite.cancel(false);
+            }
+            PENDING_MANIFEST_REWRITES.add(this);
+            // L'ordine dei brani va letto sul thread JavaFX, dove viene modificato
+            scheduledManifestRewrite = MANIFEST_WRITER.schedule(() -> Platform.runLater(() -> {
+                if (PENDING_MANIFEST_REWRITES.contains(this)) {
+                    saveManifest();
+                }
+            }), MANIFEST_REWRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Riscrive in background l'elenco salvato con l'ordine attuale dei brani, annullando
+     * un'eventuale riscrittura in attesa. Va chiamato sul thread che modifica la playlist.
+     */
+    void saveManifest() {
+        synchronized (PENDING_MANIFEST_REWRITES) {
+            if (scheduledManifestRewrite != null) {
+                scheduledManifestRewrite.cancel(false);
+                scheduledManifestRewrite = null;
+            }
+            PENDING_MANIFEST_REWRITES.remove(this);
+        }
+        if (playlistDirectory == null) return;
+
+        File directory = playlistDirectory;
+        List<SongModel> snapshot = new ArrayList<>(songs);
+        MANIFEST_WRITER.execute(() -> {
+            if (manifestDiscarded || !directory.isDirectory()) return;
+
+            try {
+                PlaylistManifest.write(directory, snapshot);
+            } catch (IOException e) {
+                System.err.println("Failed to save playlist manifest: " + directory.getPath());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Annulla le scritture dell'elenco ancora da fare e attende quella eventualmente in corso,
+     * così la cartella della playlist può essere eliminata.
+     */
+    void discardManifest() {
+        manifestDiscarded = true;
+        synchronized (PENDING_MANIFEST_REWRITES) {
+            if (scheduledManifestRewrite != null) {
+                scheduledManifestRewrite.cancel(false);
+                scheduledManifestRewrite = null;
+            }
+            PENDING_MANIFEST_REWRITES.remove(this);
+        }
+        awaitManifestWriter();
+    }
+
+    /**
+     * Scrive subito le riscritture in attesa e attende che tutti gli elenchi siano salvati.
+     * Va chiamato sul thread JavaFX, ad esempio alla chiusura dell'applicazione.
+     */
+    public static void flushManifests() {
+        for (Playlist playlist : new ArrayList<>(PENDING_MANIFEST_REWRITES)) {
+            playlist.saveManifest();
+        }
+        awaitManifestWriter();
+    }
+
+    private static void awaitManifestWriter() {
+        try {
+            MANIFEST_WRITER.submit(() -> { }).get(MANIFEST_FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Playlist manifests not written in time");
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createManifestWriter() {
+        ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "playlist-manifest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.setRemoveOnCancelPolicy(true);
+        return writer;
+    }
+
+    private void loadSettings() {
+        File settingsFile = new File(playlistDirectory, SETTINGS_FILE);
+        if (!settingsFile.isFile()) return;
+
+        Properties settings = new Properties();
+        try (InputStream input = new FileInputStream(settingsFile)) {
+            settings.load(input);
+            gapless = Boolean.parseBoolean(settings.getProperty(GAPLESS_KEY, "false"));
+        } catch (IOException e) {
+            System.err.println("Failed to load playlist settings: " + settingsFile.getPath());
+        }
+    }
+
+    private void saveSettings() {
+        if (playlistDirectory == null || !playlistDirectory.isDirectory()) return;
+
+        Properties settings = new Properties();
+        settings.setProperty(GAPLESS_KEY, Boolean.toString(gapless));
+        try (OutputStream output = new FileOutputStream(new File(playlistDirectory, SETTINGS_FILE))) {
+            settings.store(output, null);
+        } catch (IOException e) {
+            System.err.println("Failed to save playlist settings: " + playlistDirectory.getPath());
+            e.printStackTrace();
+        }
+    }
+
     public File getPlaylistDirectory() {
         return playlistDirectory;
     }
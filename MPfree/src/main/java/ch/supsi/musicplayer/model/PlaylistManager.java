@@ -1,5 +1,6 @@
 package ch.supsi.musicplayer.model;
 
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import javafx.beans.property.SimpleListProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -8,12 +9,23 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class PlaylistManager {
+    private static final int SCAN_PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     private static PlaylistManager instance;
+    private static volatile boolean copySongs = false;
     private final SimpleListProperty<Playlist> playlists;
     private final String playlistsBasePath;
+    private final LibraryScanner libraryScanner = new LibraryScanner(SCAN_PARALLELISM);
+    private LibraryScanner.LibraryScan libraryScan;
+    private final Map<Playlist, MetadataBatchResolver.MetadataBatch> metadataBatches = new ConcurrentHashMap<>();
     
 
     private PlaylistManager(String basePath) {
@@ -33,21 +45,52 @@ public class PlaylistManager {
         instance = null;
     }
 
-    public void loadExistingPlaylists() {
+    /**
+     * Sceglie se i brani aggiunti alle playlist vengono copiati nel {@link SongLibraryStore}
+     * oppure, come predefinito, indicati nell'elenco della playlist nella loro posizione originale.
+     */
+    public static void setCopySongs(boolean copy) {
+        copySongs = copy;
+    }
+
+    public static boolean isCopySongs() {
+        return copySongs;
+    }
+
+    /**
+     * Carica le playlist salvate in background con il {@link LibraryScanner}.
+     * La lista viene svuotata e riempita a gruppi man mano che le cartelle vengono lette;
+     * un'eventuale scansione precedente ancora in corso viene annullata.
+     *
+     * @return la scansione avviata, per seguirne l'avanzamento o annullarla
+     */
+    public LibraryScanner.LibraryScan loadExistingPlaylists() {
+        cancelLibraryScan();
+        
         File playlistsDir = new File(playlistsBasePath);
+        File[] directories = null;
         
         if (!playlistsDir.exists()) {
             playlistsDir.mkdirs();
-            return;
+        } else {
+            directories = playlistsDir.listFiles(File::isDirectory);
         }
         
-        File[] directories = playlistsDir.listFiles(File::isDirectory);
-        if (directories != null) {
-            List<Playlist> loadedPlaylists = new ArrayList<>();
-            for (File dir : directories) {
-                loadedPlaylists.add(new Playlist(dir));
-            }
-            playlists.setAll(loadedPlaylists);
+        List<File> directoryList = directories != null ? Arrays.asList(directories) : new ArrayList<>();
+        directoryList.sort(null);
+        
+        playlists.clear();
+        libraryScan = libraryScanner.scan(directoryList, playlists::addAll);
+        return libraryScan;
+    }
+    
+    public LibraryScanner.LibraryScan getLibraryScan() {
+        return libraryScan;
+    }
+    
+    public void cancelLibraryScan() {
+        if (libraryScan != null && !libraryScan.isDone()) {
+            libraryScan.cancel();
         }
     }
     
@@ -63,6 +106,19 @@ public class PlaylistManager {
     }
     
     public Playlist importFolderAsPlaylist(File folderToImport) throws IOException {
+        return importFolderAsPlaylist(folderToImport, songs -> { });
+    }
+
+    /**
+     * Importa la cartella come playlist senza attendere i metadati dei brani: la playlist viene
+     * restituita subito e artisti e album mancanti vengono cercati in blocco in background
+     * con il {@link MetadataBatchResolver}. I file restano nella cartella importata e la playlist
+     * ne salva solo l'elenco.
+     *
+     * @param onMetadataResolved riceve sul thread JavaFX i brani man mano che i loro metadati arrivano
+     */
+    public Playlist importFolderAsPlaylist(File folderToImport, Consumer<List<SongModel>> onMetadataResolved)
+            throws IOException {
         validateImportFolder(folderToImport);
         
         String folderName = folderToImport.getName();
@@ -73,17 +129,53 @@ public class PlaylistManager {
             throw new IOException("Selected folder does not contain any MP3 files");
         }
         
-        Playlist importedPlaylist = new Playlist(folderToImport);
+        List<SongModel> songs = Playlist.listSongFiles(folderToImport).stream()
+                .map(file -> new SongModel(file, false))
+                .collect(Collectors.toList());
+        File playlistDir = new File(playlistsBasePath, folderName);
+        ensurePlaylistDirectoryExists(playlistDir);
+        Playlist importedPlaylist = new Playlist(playlistDir, songs);
+        importedPlaylist.saveManifest();
         playlists.add(importedPlaylist);
+
+        MetadataBatchResolver.MetadataBatch batch = MetadataBatchResolver.resolve(songs, onMetadataResolved);
+        if (!batch.isDone()) {
+            metadataBatches.put(importedPlaylist, batch);
+            batch.progressProperty().addListener((obs, oldVal, newVal) -> {
+                if (batch.isDone()) {
+                    metadataBatches.remove(importedPlaylist, batch);
+                }
+            });
+        }
         return importedPlaylist;
     }
+
+    /**
+     * @return la risoluzione dei metadati ancora in corso per la playlist importata, oppure null
+     */
+    public MetadataBatchResolver.MetadataBatch getMetadataBatch(Playlist playlist) {
+        return metadataBatches.get(playlist);
+    }
     
     public boolean deletePlaylist(Playlist playlist) {
         if (playlist == null) return false;
         
         File directory = playlist.getPlaylistDirectory();
         playlists.remove(playlist);
+        // Le ricerche dei metadati per i brani della playlist eliminata non servono più
+        LastFmLookupExecutor.getInstance().cancelAll(playlist.getSongs());
+        MetadataBatchResolver.MetadataBatch batch = metadataBatches.remove(playlist);
+        if (batch != null) {
+            batch.cancel();
+        }
         
+        // Le copie nell'archivio restano finché un'altra playlist le usa
+        for (SongModel song : playlist.getSongs()) {
+            releaseIfUnused(song.getFile());
+        }
+        
+        // L'elenco non va più scritto: una scrittura in corso impedirebbe di eliminare la cartella
+        playlist.discardManifest();
         if (directory != null && directory.exists()) {
             return deletePlaylistDirectory(directory);
         }
@@ -91,36 +183,30 @@ public class PlaylistManager {
         return true;
     }
     
-    public boolean addSongToPlaylist(Playlist playlist, SongModel song) {
-        if (playlist == null || song == null) return false;
-        
-        File originalFile = song.getFile();
-        File playlistDir = playlist.getPlaylistDirectory();
-        
-        try {
-            ensurePlaylistDirectoryExists(playlistDir);
-            File destFile = new File(playlistDir, originalFile.getName());
-            
-            if (!destFile.exists()) {
-                Files.copy(originalFile.toPath(), destFile.toPath());
-            }
-            
-            SongModel playlistSong = new SongModel(destFile);
-            playlist.addSong(playlistSong);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    /**
+     * Aggiunge alla playlist i file scelti in background con il {@link SongImporter}: i file vengono copiati
+     * nell'archivio solo se le playlist copiano i brani, altrimenti vengono solo aggiunti all'elenco.
+     *
+     * @return l'importazione avviata, per seguirne l'avanzamento o annullarla
+     */
+    public SongImporter.SongImport importSongs(Playlist playlist, List<File> files) throws IOException {
+        ensurePlaylistDirectoryExists(playlist.getPlaylistDirectory());
+        return SongImporter.start(playlist, files, copySongs);
     }
     
+    /**
+     * Toglie il brano dalla playlist. I file nella loro posizione originale non vengono mai eliminati:
+     * solo le copie, nella cartella della playlist o nell'archivio se nessun'altra playlist le usa.
+     */
     public boolean removeSongFromPlaylist(Playlist playlist, SongModel song) {
         // Rimuovi la canzone dalla playlist
         playlist.removeSong(song);
+        LastFmLookupExecutor.getInstance().cancel(song);
         
-        // Elimina il file dalla cartella della playlist
         File songFile = song.getFile();
-        if (songFile.exists()) {
+        File playlistDir = playlist.getPlaylistDirectory();
+        if (playlistDir != null && playlistDir.equals(songFile.getParentFile())) {
+            // Copia fatta nella cartella della playlist prima degli elenchi
             try {
                 Files.deleteIfExists(songFile.toPath());
                 return true;
@@ -130,9 +216,28 @@ public class PlaylistManager {
             }
         }
         
+        releaseIfUnused(songFile);
         return true;
     }
     
+    /**
+     * Elimina il file dall'archivio se nessuna playlist lo usa più. Finché le playlist salvate
+     * non sono state caricate tutte non è possibile saperlo, quindi il file viene tenuto.
+     */
+    private void releaseIfUnused(File file) {
+        SongLibraryStore store = SongLibraryStore.getInstance();
+        if (!store.contains(file) || libraryScan == null || !libraryScan.isDone() || libraryScan.isCancelled()) {
+            return;
+        }
+        
+        for (Playlist other : playlists) {
+            if (other.containsSong(file)) {
+                return;
+            }
+        }
+        store.release(file);
+    }
+    
     public ObservableList<Playlist> getPlaylists() {
         return playlists.get();
     }
@@ -157,6 +262,11 @@ public class PlaylistManager {
                 throw new IOException("A playlist with this name already exists");
             }
         }
+        
+        // La cartella può esistere anche se la playlist non è ancora stata caricata dalla scansione
+        if (new File(playlistsBasePath, name).exists()) {
+            throw new IOException("A playlist with this name already exists");
+        }
     }
     
     private void validateImportFolder(File folder) throws IOException {
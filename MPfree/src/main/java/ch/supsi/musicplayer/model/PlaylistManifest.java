@@ -0,0 +1,101 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Elenco dei brani di una playlist salvato come file M3U8 nella cartella della playlist.
+ * I brani sono indicati con il percorso del file nella sua posizione, quindi aggiungere un brano
+ * significa scrivere una riga e non copiare il file. Le aggiunte vengono scritte in fondo all'elenco,
+ * mentre rimozioni e spostamenti lo riscrivono per intero sostituendolo all'originale.
+ */
+final class PlaylistManifest {
+    static final String MANIFEST_FILE = "playlist.m3u8";
+
+    private static final String HEADER = "#EXTM3U";
+    private static final String ENTRY_INFO = "#EXTINF:";
+
+    private PlaylistManifest() {
+    }
+
+    static boolean exists(File directory) {
+        return new File(directory, MANIFEST_FILE).isFile();
+    }
+
+    /**
+     * Legge i file elencati, nell'ordine dell'elenco; i percorsi relativi sono risolti rispetto alla cartella
+     * e i file non più leggibili vengono tralasciati.
+     */
+    static List<File> read(File directory) throws IOException {
+        List<File> files = new ArrayList<>();
+        Path manifest = new File(directory, MANIFEST_FILE).toPath();
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                File file = new File(line);
+                if (!file.isAbsolute()) {
+                    file = new File(directory, line);
+                }
+                if (file.isFile() && file.canRead()) {
+                    files.add(file);
+                } else {
+                    System.err.println("Playlist entry not found: " + file.getPath());
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Riscrive l'elenco con i brani indicati.
+     */
+    static void write(File directory, List<SongModel> songs) throws IOException {
+        Path manifest = new File(directory, MANIFEST_FILE).toPath();
+        Path temporary = manifest.resolveSibling(MANIFEST_FILE + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (SongModel song : songs) {
+                writeEntry(writer, song);
+            }
+        }
+        Files.move(temporary, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Aggiunge i brani in fondo a un elenco esistente.
+     */
+    static void append(File directory, List<SongModel> songs) throws IOException {
+        Path manifest = new File(directory, MANIFEST_FILE).toPath();
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND)) {
+            for (SongModel song : songs) {
+                writeEntry(writer, song);
+            }
+        }
+    }
+
+    private static void writeEntry(BufferedWriter writer, SongModel song) throws IOException {
+        // -1 indica una durata non ancora nota, come previsto dal formato
+        int duration = song.isDurationKnown() ? song.getKnownDuration() : -1;
+        String title = (song.getArtist() + " - " + song.getTitle()).replace('\r', ' ').replace('\n', ' ');
+        writer.write(ENTRY_INFO + duration + "," + title);
+        writer.newLine();
+        writer.write(song.getFile().getAbsolutePath());
+        writer.newLine();
+    }
+}
@@ -0,0 +1,299 @@
+package ch.supsi.musicplayer.model;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Aggiunge a una playlist un gruppo di file scelti dall'utente senza bloccare l'interfaccia.
+ * Se le playlist copiano i brani, i file vengono salvati nel {@link SongLibraryStore} da un numero limitato
+ * di thread in parallelo, segnalando l'avanzamento di ogni file e la velocità complessiva; altrimenti
+ * vengono solo preparati i brani che fanno riferimento ai file originali.
+ * I brani entrano nella playlist sul thread JavaFX, nell'ordine in cui sono stati scelti, solo a copia
+ * completata: annullando l'importazione le copie in corso vengono interrotte, quelle non iniziate saltate,
+ * e alla fine la playlist contiene esattamente i brani copiati per intero; nessun file parziale resta
+ * nell'archivio.
+ */
+public final class SongImporter {
+    private static final int COPY_PARALLELISM = 3;
+
+    private SongImporter() {
+    }
+
+    /**
+     * Avvia l'importazione dei file nella playlist.
+     *
+     * @param copy true per copiare i file nell'archivio, false per fare riferimento ai file originali
+     * @return l'importazione avviata, che permette di seguirne l'avanzamento o di annullarla
+     */
+    public static SongImport start(Playlist playlist, List<File> files, boolean copy) {
+        SongImport songImport = new SongImport(playlist, files, copy);
+        songImport.start();
+        return songImport;
+    }
+
+    /**
+     * Avanzamento di un singolo file: i byte elaborati sul totale, che in copia comprende
+     * sia la lettura per l'hash sia la scrittura.
+     */
+    public static final class FileProgress {
+        private final File file;
+        private final long processedBytes;
+        private final long totalBytes;
+
+        private FileProgress(File file, long processedBytes, long totalBytes) {
+            this.file = file;
+            this.processedBytes = processedBytes;
+            this.totalBytes = totalBytes;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getProcessedBytes() {
+            return processedBytes;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public double getFraction() {
+            return totalBytes > 0 ? Math.min(1.0, (double) processedBytes / totalBytes) : 1.0;
+        }
+    }
+
+    /**
+     * Importazione in corso: avanzamento, velocità e ultimo file aggiornato sono proprietà JavaFX
+     * aggiornate sul thread JavaFX al massimo una volta per giro.
+     */
+    public static final class SongImport {
+        private final Playlist playlist;
+        private final List<File> files;
+        private final boolean copy;
+        private final SongModel[] results;
+        private final boolean[] finished;
+        private final long totalBytes;
+        private final AtomicLong processedBytes = new AtomicLong();
+        private final AtomicInteger finishedCount = new AtomicInteger();
+        private final AtomicInteger failedCount = new AtomicInteger();
+        private final AtomicReference<FileProgress> lastProgress = new AtomicReference<>();
+        private final AtomicBoolean publishScheduled = new AtomicBoolean(false);
+        private final Map<Integer, Thread> activeCopies = new ConcurrentHashMap<>();
+        private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0.0);
+        private final ReadOnlyDoubleWrapper bytesPerSecond = new ReadOnlyDoubleWrapper(0.0);
+        private final ReadOnlyObjectWrapper<FileProgress> currentFile = new ReadOnlyObjectWrapper<>();
+        private final ReadOnlyBooleanWrapper running = new ReadOnlyBooleanWrapper(true);
+        private long startNanos;
+        // Usati solo sul thread JavaFX
+        private int nextToAdd = 0;
+        private int importedCount = 0;
+        private volatile boolean cancelled = false;
+
+        private SongImport(Playlist playlist, List<File> files, boolean copy) {
+            this.playlist = playlist;
+            this.files = new ArrayList<>(files);
+            this.copy = copy;
+            this.results = new SongModel[files.size()];
+            this.finished = new boolean[files.size()];
+
+            long bytes = 0;
+            for (File file : this.files) {
+                // In copia ogni file viene letto per l'hash e poi scritto
+                bytes += copy ? 2 * file.length() : 1;
+            }
+            this.totalBytes = Math.max(1, bytes);
+        }
+
+        private void start() {
+            startNanos = System.nanoTime();
+            if (files.isEmpty()) {
+                running.set(false);
+                progress.set(1.0);
+                return;
+            }
+
+            int threads = copy ? Math.min(COPY_PARALLELISM, files.size()) : 1;
+            ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "song-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                executor.execute(() -> importFile(index));
+            }
+            executor.shutdown();
+        }
+
+        private void importFile(int index) {
+            File source = files.get(index);
+            SongModel song = null;
+            try {
+                // Registrato prima del controllo, così un annullamento concorrente interrompe anche questa copia
+                activeCopies.put(index, Thread.currentThread());
+                if (cancelled) return;
+
+                if (copy) {
+                    long fileBytes = 2 * source.length();
+                    AtomicLong fileProcessed = new AtomicLong();
+                    File stored = SongLibraryStore.getInstance().store(source, bytes -> {
+                        processedBytes.addAndGet(bytes);
+                        lastProgress.set(new FileProgress(source, fileProcessed.addAndGet(bytes), fileBytes));
+                        schedulePublish();
+                    });
+                    song = new SongModel(stored);
+                } else {
+                    processedBytes.incrementAndGet();
+                    song = new SongModel(source);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!cancelled) {
+                    failedCount.incrementAndGet();
+                    System.err.println("Failed to import song: " + source.getPath());
+                    e.printStackTrace();
+                }
+            } finally {
+                activeCopies.remove(index);
+                // Un'interruzione arrivata a copia finita non deve fermare il file successivo
+                Thread.interrupted();
+                complete(index, song);
+            }
+        }
+
+        private void complete(int index, SongModel song) {
+            synchronized (this) {
+                results[index] = song;
+                finished[index] = true;
+            }
+            finishedCount.incrementAndGet();
+            schedulePublish();
+        }
+
+        private void schedulePublish() {
+            if (publishScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::publish);
+            }
+        }
+
+        /**
+         * Aggiunge alla playlist i brani completati che seguono quelli già aggiunti, nell'ordine di scelta,
+         * e aggiorna le proprietà.
+         */
+        private void publish() {
+            // Va azzerato prima di leggere lo stato: gli aggiornamenti successivi richiedono una nuova pubblicazione
+            publishScheduled.set(false);
+
+            boolean done = finishedCount.get() == files.size();
+            List<SongModel> ready = new ArrayList<>();
+            synchronized (this) {
+                while (nextToAdd < files.size() && finished[nextToAdd]) {
+                    if (results[nextToAdd] != null) {
+                        ready.add(results[nextToAdd]);
+                        results[nextToAdd] = null;
+                    }
+                    nextToAdd++;
+                }
+            }
+            if (!ready.isEmpty()) {
+                playlist.addSongs(ready);
+                importedCount += ready.size();
+            }
+
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            long processed = processedBytes.get();
+            progress.set(done ? 1.0 : Math.min(1.0, (double) processed / totalBytes));
+            bytesPerSecond.set(seconds > 0 ? processed / seconds : 0);
+            FileProgress fileProgress = lastProgress.get();
+            if (fileProgress != null) {
+                currentFile.set(fileProgress);
+            }
+            if (done) {
+                running.set(false);
+            }
+        }
+
+        /**
+         * Interrompe le copie in corso e salta quelle non ancora iniziate. I brani copiati per intero,
+         * anche se terminati mentre l'annullamento era in corso, entrano comunque nella playlist; quelli
+         * interrotti no e il loro file parziale viene eliminato. L'importazione risulta terminata quando
+         * tutte le copie si sono fermate.
+         */
+        public void cancel() {
+            if (cancelled) return;
+
+            cancelled = true;
+            for (Thread thread : activeCopies.values()) {
+                thread.interrupt();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return il numero di brani aggiunti finora alla playlist; da leggere sul thread JavaFX
+         */
+        public int getImportedCount() {
+            return importedCount;
+        }
+
+        /**
+         * @return il numero di file che non è stato possibile importare
+         */
+        public int getFailedCount() {
+            return failedCount.get();
+        }
+
+        public int getTotalCount() {
+            return files.size();
+        }
+
+        /**
+         * Frazione dei byte elaborati, da 0 a 1, aggiornata sul thread JavaFX.
+         */
+        public ReadOnlyDoubleProperty progressProperty() {
+            return progress.getReadOnlyProperty();
+        }
+
+        /**
+         * Velocità media dall'inizio dell'importazione, in byte elaborati al secondo.
+         */
+        public ReadOnlyDoubleProperty bytesPerSecondProperty() {
+            return bytesPerSecond.getReadOnlyProperty();
+        }
+
+        /**
+         * Avanzamento del file aggiornato più di recente; null finché nessuna copia è iniziata.
+         */
+        public ReadOnlyObjectProperty<FileProgress> currentFileProperty() {
+            return currentFile.getReadOnlyProperty();
+        }
+
+        /**
+         * false quando l'importazione è terminata o è stata annullata e la playlist non cambia più.
+         */
+        public ReadOnlyBooleanProperty runningProperty() {
+            return running.getReadOnlyProperty();
+        }
+    }
+}
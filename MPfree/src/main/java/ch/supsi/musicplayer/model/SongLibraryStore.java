@@ -0,0 +1,194 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.LongConsumer;
+
+/**
+ * Archivio dei brani copiati nelle playlist, in ~/.musicplayer/library, indicizzato per contenuto.
+ * Ogni file viene salvato con il nome dato dall'hash SHA-256 del contenuto, quindi lo stesso brano
+ * aggiunto a più playlist, o da percorsi diversi, occupa spazio una volta sola.
+ * Usato solo quando le playlist sono impostate per copiare i brani invece di farvi riferimento.
+ * Il contenuto viene sempre copiato, mai collegato all'originale, così modificare o eliminare il file
+ * originale non altera l'archivio; la copia avviene con {@link FileChannel#transferTo}, che la lascia
+ * al sistema operativo senza passare dalla memoria dell'applicazione.
+ */
+public final class SongLibraryStore {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String userHomeDirectory = System.getProperty("user.home");
+
+    private static final String storeDirectory = ".musicplayer";
+
+    private static final String libraryDirectory = "library";
+
+    private static SongLibraryStore instance;
+
+    private final Path libraryPath;
+
+    private SongLibraryStore(Path libraryPath) {
+        this.libraryPath = libraryPath;
+    }
+
+    public static synchronized SongLibraryStore getInstance() {
+        if (instance == null) {
+            instance = new SongLibraryStore(Path.of(userHomeDirectory, storeDirectory, libraryDirectory));
+        }
+
+        return instance;
+    }
+
+    public static synchronized void resetInstance() {
+        instance = null;
+    }
+
+    /**
+     * Copia il file nell'archivio, a meno che un file con lo stesso contenuto non ci sia già.
+     *
+     * @return il file nell'archivio
+     */
+    public File store(File source) throws IOException {
+        return store(source, bytes -> { });
+    }
+
+    /**
+     * Come {@link #store(File)}, segnalando man mano i byte elaborati: prima quelli letti per calcolare
+     * l'hash, poi quelli copiati, per un totale di due volte la dimensione del file. Un file già presente
+     * nell'archivio completa la seconda metà una volta verificato che il suo contenuto corrisponda ancora.
+     * Se il thread viene interrotto la copia si ferma e il file parziale viene eliminato.
+     */
+    public File store(File source, LongConsumer progress) throws IOException {
+        long size = Files.size(source.toPath());
+        String hash = hashOf(source.toPath(), progress);
+        Path target = pathOf(hash);
+        if (isIntact(target, hash, size)) {
+            progress.accept(size);
+            return target.toFile();
+        }
+
+        Files.createDirectories(target.getParent());
+        // Copia su un file temporaneo e spostamento atomico: un file interrotto non viene mai scambiato per buono
+        Path temporary = target.resolveSibling(hash + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.deleteIfExists(temporary);
+            transfer(source.toPath(), temporary, progress);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Un file dell'archivio viene riutilizzato solo se il suo contenuto ha ancora l'hash del nome e se non
+     * condivide il contenuto con un altro file, come i collegamenti fisici creati da versioni precedenti:
+     * altrimenti va sostituito con una copia.
+     */
+    private static boolean isIntact(Path stored, String hash, long size) throws IOException {
+        if (!Files.isRegularFile(stored) || Files.size(stored) != size || isLinked(stored)) {
+            return false;
+        }
+        return hashOf(stored, bytes -> { }).equals(hash);
+    }
+
+    /**
+     * @return true se il file ha altri collegamenti fisici; sui file system che non lo indicano, false
+     */
+    private static boolean isLinked(Path file) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void transfer(Path source, Path target, LongConsumer progress) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Copy cancelled: " + source);
+                }
+                // A blocchi, per poter segnalare l'avanzamento e fermarsi tra un blocco e l'altro
+                long transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of file: " + source);
+                }
+                position += transferred;
+                progress.accept(transferred);
+            }
+        }
+    }
+
+    /**
+     * @return true se il file fa parte dell'archivio
+     */
+    public boolean contains(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        return path.getParent() != null && libraryPath.equals(path.getParent().getParent());
+    }
+
+    /**
+     * Elimina dall'archivio un file che nessuna playlist usa più.
+     */
+    public boolean release(File file) {
+        if (!contains(file)) return false;
+
+        try {
+            return Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Failed to delete library file: " + file.getPath());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * I file sono distribuiti in sottocartelle per i primi due caratteri dell'hash,
+     * così nessuna cartella contiene troppi file.
+     */
+    private Path pathOf(String hash) {
+        return libraryPath.resolve(hash.substring(0, 2)).resolve(hash + ".mp3");
+    }
+
+    private static String hashOf(Path file, LongConsumer progress) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                progress.accept(read);
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
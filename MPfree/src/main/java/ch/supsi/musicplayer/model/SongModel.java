@@ -1,49 +1,101 @@
 package ch.supsi.musicplayer.model;
 
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import ch.supsi.musicplayer.service.LastFmService;
+import ch.supsi.musicplayer.service.TrackName;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.BufferedInputStream;
 import java.util.concurrent.CompletableFuture;
 
+/**
+ * Brano di una playlist. Artista e album possono essere aggiornati da un thread qualsiasi quando arrivano
+ * da Last.fm: i valori sono sempre leggibili con i getter, mentre le proprietà osservabili usate
+ * dall'interfaccia vengono create solo se richieste e aggiornate sul thread JavaFX al frame successivo.
+ * Allo stesso modo la durata, se non è già registrata, può essere ricavata in background senza bloccare chi la chiede.
+ */
 public class SongModel {
+    private static final int UNKNOWN_DURATION = -1;
+
     private final String title;
-    private String artist;
-    private String album;
-    private int duration;
+    private volatile String artist;
+    private volatile String album;
+    private volatile int duration;
     private final File file;
-    private final LastFmService lastFmService;
+    private volatile boolean metadataResolved = false;
+    private CompletableFuture<Integer> durationLookup;
+    // Usate solo sul thread JavaFX
+    private ReadOnlyStringWrapper artistProperty;
+    private ReadOnlyStringWrapper albumProperty;
+    private ReadOnlyIntegerWrapper durationProperty;
     
    
     public SongModel(File file) {
+        this(file, true);
+    }
+
+    /**
+     * @param lookupMetadata false se artista e album mancanti verranno cercati da chi crea il brano,
+     *                       ad esempio in blocco dal {@link MetadataBatchResolver}
+     */
+    SongModel(File file, boolean lookupMetadata) {
         this.file = file;
-        this.lastFmService = new LastFmService();
         
         // Estrai artista e titolo dal nome del file
-        String[] metadata = LastFmService.parseFilename(file.getName());
-        this.artist = metadata[0].isEmpty() ? "Unknown Artist" : metadata[0];
-        this.title = metadata[1];
+        TrackName name = TrackName.parse(file.getName());
+        this.artist = name.getArtist().isEmpty() ? "Unknown Artist" : name.getArtist();
+        this.title = name.getTitle();
         this.album = "Unknown Album";
-        this.duration = 0;
+        this.duration = UNKNOWN_DURATION;
         
-        fetchMetadata();
+        // I dati già registrati per questo file evitano analisi e ricerche ripetute
+        TrackMetadata stored = TrackMetadataStore.getInstance().get(file);
+        if (stored != null && stored.hasDuration()) {
+            this.duration = (int) stored.getDurationSeconds();
+        }
+        if (stored != null && stored.hasArtistAndAlbum()) {
+            this.artist = stored.getArtist();
+            this.album = stored.getAlbum();
+            this.metadataResolved = true;
+        } else if (lookupMetadata) {
+            fetchMetadata(name);
+        }
     }
     
-    private void fetchMetadata() {
-        CompletableFuture.runAsync(() -> {
-            // Se abbiamo un artista dal nome del file, usalo
-            if (!artist.equals("Unknown Artist")) {
-                lastFmService.getTrackInfo(artist, title).ifPresent(this::updateMetadata);
-            } else {
-                // Altrimenti cerca solo per titolo
-                lastFmService.getTrackInfo("", title).ifPresent(this::updateMetadata);
-            }
-        });
+    /**
+     * Accoda la ricerca dei metadati sull'esecutore condiviso, con priorità di background;
+     * il brano stesso è la chiave con cui la ricerca può essere promossa o annullata.
+     * Se il nome del file non indica l'artista la ricerca avviene solo per titolo.
+     */
+    private void fetchMetadata(TrackName name) {
+        LastFmLookupExecutor.getInstance().submit(this, LastFmLookupExecutor.Priority.BACKGROUND,
+                () -> LastFmService.getInstance().getTrackInfo(name).ifPresent(this::applyMetadata));
     }
     
-    private void updateMetadata(LastFmService.SongMetadata metadata) {
+    void applyMetadata(LastFmService.SongMetadata metadata) {
         this.artist = metadata.getArtist();
         this.album = metadata.getAlbum();
+        this.metadataResolved = true;
+        TrackMetadataStore.getInstance().putArtistAndAlbum(file, artist, album);
+        FxUpdateBatcher.publish(this);
+    }
+
+    /**
+     * Copia artista, album e durata nelle proprietà osservabili; chiamato sul thread JavaFX.
+     */
+    void publishMetadata() {
+        if (artistProperty != null) artistProperty.set(artist);
+        if (albumProperty != null) albumProperty.set(album);
+        if (durationProperty != null) durationProperty.set(getKnownDuration());
+    }
+
+    /**
+     * @return true se artista e album sono stati letti dall'archivio locale o trovati su Last.fm
+     */
+    public boolean hasResolvedMetadata() {
+        return metadataResolved;
     }
     
     public String getTitle() {
@@ -57,43 +109,96 @@ public class SongModel {
     public String getAlbum() {
         return album;
     }
+
+    /**
+     * Artista osservabile, da usare solo sul thread JavaFX.
+     */
+    public ReadOnlyStringProperty artistProperty() {
+        if (artistProperty == null) {
+            artistProperty = new ReadOnlyStringWrapper(this, "artist", artist);
+        }
+        return artistProperty.getReadOnlyProperty();
+    }
+
+    /**
+     * Album osservabile, da usare solo sul thread JavaFX.
+     */
+    public ReadOnlyStringProperty albumProperty() {
+        if (albumProperty == null) {
+            albumProperty = new ReadOnlyStringWrapper(this, "album", album);
+        }
+        return albumProperty.getReadOnlyProperty();
+    }
     
+    /**
+     * Restituisce la durata in secondi; se non è già nota viene letta dall'archivio dei metadati
+     * oppure ricavata dalle intestazioni del file e registrata alla prima richiesta.
+     * Può quindi leggere dal disco: sul thread JavaFX va usato {@link #getKnownDuration()}.
+     */
     public int getDuration() {
-        if (duration == 0) {
+        if (duration == UNKNOWN_DURATION) {
+            int seconds;
             try {
-                FileInputStream fis = new FileInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                try {
-                    javazoom.jl.decoder.Bitstream bitstream = new javazoom.jl.decoder.Bitstream(bis);
-                    javazoom.jl.decoder.Header header = bitstream.readFrame();
-                    
-                    if (header != null) {
-                        int totalFrames = 0;
-                        double msPerFrame = header.ms_per_frame();
-                        
-                        while (header != null) {
-                            totalFrames++;
-                            bitstream.closeFrame();
-                            header = bitstream.readFrame();
-                        }
-                        
-                        duration = (int)((totalFrames * msPerFrame) / 1000.0);
-                    }
-                } finally {
-                    try {
-                        bis.close();
-                        fis.close();
-                    } catch (Exception e) {
-                        // Ignore close errors
-                    }
-                }
+                seconds = (int) Mp3Analyzer.getInstance().analyze(file).getDurationSeconds();
             } catch (Exception e) {
                 // In case of error, return 0
-                duration = 0;
+                seconds = 0;
             }
+            setDuration(seconds);
         }
         return duration;
     }
+
+    /**
+     * @return true se la durata è già nota e {@link #getDuration()} non legge dal disco
+     */
+    public boolean isDurationKnown() {
+        return duration != UNKNOWN_DURATION;
+    }
+
+    /**
+     * @return la durata in secondi se è già nota, altrimenti 0; non legge mai dal disco
+     */
+    public int getKnownDuration() {
+        return Math.max(0, duration);
+    }
+
+    /**
+     * Ricava la durata in background se non è ancora nota. Richieste ripetute condividono la stessa analisi;
+     * a durata nota la proprietà osservabile viene aggiornata al frame successivo.
+     *
+     * @return la durata in secondi, 0 se il file non è leggibile
+     */
+    synchronized CompletableFuture<Integer> resolveDuration() {
+        if (isDurationKnown()) {
+            return CompletableFuture.completedFuture(duration);
+        }
+        if (durationLookup == null) {
+            durationLookup = Mp3Analyzer.getInstance().analyzeAsync(file)
+                    .handle((metadata, error) -> {
+                        setDuration(error == null ? (int) metadata.getDurationSeconds() : 0);
+                        return duration;
+                    });
+        }
+        return durationLookup;
+    }
+
+    private void setDuration(int seconds) {
+        if (duration == UNKNOWN_DURATION) {
+            duration = seconds;
+            FxUpdateBatcher.publish(this);
+        }
+    }
+
+    /**
+     * Durata osservabile in secondi, 0 finché non è nota; da usare solo sul thread JavaFX.
+     */
+    public ReadOnlyIntegerProperty durationProperty() {
+        if (durationProperty == null) {
+            durationProperty = new ReadOnlyIntegerWrapper(this, "duration", getKnownDuration());
+        }
+        return durationProperty.getReadOnlyProperty();
+    }
     
     public File getFile() {
         return file;
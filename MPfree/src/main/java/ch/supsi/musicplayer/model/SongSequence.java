@@ -0,0 +1,263 @@
+package ch.supsi.musicplayer.model;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sequenza ordinata dei brani di una playlist, memorizzata in un albero bilanciato (treap) indicizzato per posizione.
+ * Ogni nodo conosce la dimensione del proprio sottoalbero, così accesso, inserimento, rimozione e spostamento
+ * per indice costano O(log n) invece di spostare tutti gli elementi successivi come in un ArrayList;
+ * un indice dal brano al suo nodo permette di trovarne la posizione risalendo l'albero.
+ * Dall'esterno la lista è in sola lettura: le modifiche passano dalla {@link Playlist} e vengono notificate
+ * agli osservatori come singole aggiunte, rimozioni o spostamenti, sul thread che le esegue.
+ */
+final class SongSequence extends ObservableListBase<SongModel> {
+    private final Map<SongModel, Node> nodes = new HashMap<>();
+    private Node root;
+
+    /**
+     * Aggiunge i brani in fondo alla sequenza con un'unica notifica.
+     */
+    void appendAll(List<SongModel> songs) {
+        if (songs.isEmpty()) return;
+
+        int from = size();
+        for (SongModel song : songs) {
+            Node node = new Node(song);
+            nodes.put(song, node);
+            root = merge(root, node);
+        }
+        root.parent = null;
+
+        beginChange();
+        nextAdd(from, size());
+        endChange();
+    }
+
+    void append(SongModel song) {
+        Node node = new Node(song);
+        nodes.put(song, node);
+        root = merge(root, node);
+        root.parent = null;
+
+        beginChange();
+        nextAdd(size() - 1, size());
+        endChange();
+    }
+
+    boolean remove(SongModel song) {
+        Node node = nodes.remove(song);
+        if (node == null) return false;
+
+        int index = detach(node);
+        beginChange();
+        nextRemove(index, song);
+        endChange();
+        return true;
+    }
+
+    /**
+     * Sposta il brano alla posizione indicata, riusando lo stesso nodo.
+     */
+    boolean move(SongModel song, int newIndex) {
+        Node node = nodes.get(song);
+        if (node == null || newIndex < 0 || newIndex >= size()) return false;
+
+        int index = detach(node);
+        if (index == newIndex) {
+            insert(node, index);
+            return false;
+        }
+        insert(node, newIndex);
+
+        beginChange();
+        nextRemove(index, song);
+        nextAdd(newIndex, newIndex + 1);
+        endChange();
+        return true;
+    }
+
+    /**
+     * Toglie il nodo dall'albero e restituisce la posizione che occupava.
+     */
+    private int detach(Node node) {
+        int index = positionOf(node);
+        Node[] left = split(root, index);
+        Node[] right = split(left[1], 1);
+        root = merge(left[0], right[1]);
+        if (root != null) root.parent = null;
+        node.left = node.right = node.parent = null;
+        node.update();
+        return index;
+    }
+
+    private void insert(Node node, int index) {
+        Node[] parts = split(root, index);
+        root = merge(merge(parts[0], node), parts[1]);
+        root.parent = null;
+    }
+
+    /**
+     * Posizione del nodo: gli elementi del sottoalbero sinistro più quelli a sinistra di ogni antenato
+     * di cui il nodo sta nel sottoalbero destro.
+     */
+    private static int positionOf(Node node) {
+        int index = size(node.left);
+        for (Node child = node, parent = node.parent; parent != null; child = parent, parent = parent.parent) {
+            if (child == parent.right) {
+                index += size(parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public SongModel get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.song;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Node node = nodes.get(o);
+        return node != null ? positionOf(node) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    /**
+     * Visita in ordine passando al successivo tramite i puntatori al padre, in tempo lineare complessivo.
+     */
+    @Override
+    public Iterator<SongModel> iterator() {
+        return new Iterator<>() {
+            private Node next = first(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public SongModel next() {
+                if (next == null) throw new NoSuchElementException();
+                Node current = next;
+                next = successor(current);
+                return current.song;
+            }
+        };
+    }
+
+    private static Node first(Node node) {
+        if (node == null) return null;
+        while (node.left != null) node = node.left;
+        return node;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null) return first(node.right);
+        Node child = node;
+        Node parent = node.parent;
+        while (parent != null && child == parent.right) {
+            child = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    /**
+     * Divide l'albero nei primi count elementi e nei restanti.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) return new Node[] {null, null};
+
+        if (size(node.left) < count) {
+            Node[] parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts[0];
+            node.update();
+            if (parts[1] != null) parts[1].parent = null;
+            return new Node[] {node, parts[1]};
+        }
+        Node[] parts = split(node.left, count);
+        node.left = parts[1];
+        node.update();
+        if (parts[0] != null) parts[0].parent = null;
+        return new Node[] {parts[0], node};
+    }
+
+    /**
+     * Unisce due alberi in cui tutti gli elementi del primo precedono quelli del secondo.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static final class Node {
+        private final SongModel song;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int size = 1;
+
+        private Node(SongModel song) {
+            this.song = song;
+        }
+
+        /**
+         * Ricalcola la dimensione e ricollega i figli dopo che sono cambiati.
+         */
+        private void update() {
+            size = 1 + size(left) + size(right);
+            if (left != null) left.parent = this;
+            if (right != null) right.parent = this;
+        }
+    }
+}
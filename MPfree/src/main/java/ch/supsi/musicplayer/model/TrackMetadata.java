@@ -0,0 +1,122 @@
+package ch.supsi.musicplayer.model;
+
+/**
+ * Dati di una traccia salvati nel {@link TrackMetadataStore}.
+ * Valgono solo finché dimensione e data di modifica del file coincidono con quelle registrate;
+ * artista e album sono null se non sono ancora stati risolti.
+ */
+public final class TrackMetadata {
+    private final long size;
+    private final long lastModified;
+    private final double durationSeconds;
+    private final int frameCount;
+    private final int bitrateKbps;
+    private final int sampleRate;
+    private final int channelMode;
+    private final boolean vbr;
+    private final String artist;
+    private final String album;
+    private final long seekIndexOffset;
+    private final int seekIndexLength;
+
+    TrackMetadata(long size, long lastModified, double durationSeconds, int frameCount, int bitrateKbps,
+                  int sampleRate, int channelMode, boolean vbr, String artist, String album,
+                  long seekIndexOffset, int seekIndexLength) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.durationSeconds = durationSeconds;
+        this.frameCount = frameCount;
+        this.bitrateKbps = bitrateKbps;
+        this.sampleRate = sampleRate;
+        this.channelMode = channelMode;
+        this.vbr = vbr;
+        this.artist = artist;
+        this.album = album;
+        this.seekIndexOffset = seekIndexOffset;
+        this.seekIndexLength = seekIndexLength;
+    }
+
+    boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    TrackMetadata withArtistAndAlbum(String artist, String album) {
+        return new TrackMetadata(size, lastModified, durationSeconds, frameCount, bitrateKbps,
+                sampleRate, channelMode, vbr, artist, album, seekIndexOffset, seekIndexLength);
+    }
+
+    TrackMetadata withSeekIndex(long seekIndexOffset, int seekIndexLength) {
+        return new TrackMetadata(size, lastModified, durationSeconds, frameCount, bitrateKbps,
+                sampleRate, channelMode, vbr, artist, album, seekIndexOffset, seekIndexLength);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean hasDuration() {
+        return durationSeconds > 0;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Modalità dei canali del primo frame: 0 stereo, 1 joint stereo, 2 dual channel, 3 mono.
+     */
+    public int getChannelMode() {
+        return channelMode;
+    }
+
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    public boolean hasArtistAndAlbum() {
+        return artist != null && album != null;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    boolean hasSeekIndex() {
+        return seekIndexLength > 0;
+    }
+
+    /**
+     * Vero se l'indice di seek è registrato ma non ancora scritto sul file dell'archivio.
+     */
+    boolean isSeekIndexUnwritten() {
+        return seekIndexLength > 0 && seekIndexOffset < 0;
+    }
+
+    long getSeekIndexOffset() {
+        return seekIndexOffset;
+    }
+
+    int getSeekIndexLength() {
+        return seekIndexLength;
+    }
+}
@@ -0,0 +1,518 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archivio persistente dei dati delle tracce in ~/.musicplayer, per non dover rianalizzare
+ * i file e ripetere le ricerche su Last.fm a ogni avvio.
+ * Le voci sono indicizzate per percorso canonico e considerate valide solo se dimensione e data
+ * di modifica del file non sono cambiate. Il file è un log in sola aggiunta: ogni aggiornamento
+ * scrive un nuovo record che sostituisce il precedente, e all'avvio il log viene letto una volta
+ * tenendo in memoria solo i dati scalari. Gli indici di seek restano su disco e vengono letti
+ * con un accesso diretto solo quando servono; quando i record superati diventano troppi
+ * il log viene riscritto con le sole voci correnti.
+ * Come nella {@link ch.supsi.musicplayer.service.LastFmCache} le voci in memoria sono aggiornate
+ * sotto il lock dell'archivio, mentre i record sono scritti sul file in ordine da un unico thread:
+ * l'analisi dei brani e le ricerche su Last.fm non attendono mai l'accesso al disco.
+ */
+public final class TrackMetadataStore {
+    private static final int MAGIC = 0x4D50544D;
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 5;
+    private static final byte RECORD_SEEK_INDEX = 1;
+    private static final byte RECORD_METADATA = 2;
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final int COMPACTION_SLACK = 256;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private static final String userHomeDirectory = System.getProperty("user.home");
+
+    private static final String storeDirectory = ".musicplayer";
+
+    private static final String storeFile = "track-metadata.db";
+
+    private static TrackMetadataStore instance;
+
+    private final Path storePath;
+    private final Map<String, TrackMetadata> entries = new ConcurrentHashMap<>();
+    // Indici di seek registrati ma non ancora scritti sul file, protetti dal lock dell'archivio
+    private final Map<String, byte[]> unwrittenSeekIndexes = new HashMap<>();
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "track-metadata-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Usati solo dal thread di scrittura, oppure durante il caricamento prima che parta
+    private DataOutputStream output;
+    private long length = 0;
+    private int metadataRecords = 0;
+
+    /**
+     * Archivio salvato nel file indicato, ad esempio in una cartella temporanea nei test.
+     */
+    TrackMetadataStore(Path storePath) {
+        this.storePath = storePath;
+        load();
+    }
+
+    public static synchronized TrackMetadataStore getInstance() {
+        if (instance == null) {
+            instance = new TrackMetadataStore(Path.of(userHomeDirectory, storeDirectory, storeFile));
+        }
+
+        return instance;
+    }
+
+    public static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.close();
+        }
+        instance = null;
+    }
+
+    /**
+     * @return i dati registrati per il file, oppure null se mancano o se il file è cambiato
+     */
+    public TrackMetadata get(File file) {
+        TrackMetadata metadata = entries.get(keyOf(file));
+        if (metadata == null || !metadata.matches(file.length(), file.lastModified())) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Registra artista e album risolti per il file, mantenendo gli altri dati già presenti.
+     */
+    public void putArtistAndAlbum(File file, String artist, String album) {
+        String key = keyOf(file);
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            TrackMetadata previous = entries.get(key);
+            TrackMetadata metadata;
+            if (previous != null && previous.matches(size, lastModified)) {
+                metadata = previous.withArtistAndAlbum(artist, album);
+            } else {
+                metadata = new TrackMetadata(size, lastModified, 0, 0, 0, 0, 0, false, artist, album, -1, 0);
+            }
+            putMetadata(key, metadata, null);
+        }
+    }
+
+    /**
+     * Registra l'indice di seek del file insieme ai dati che se ne ricavano,
+     * mantenendo artista e album già risolti. Finché il thread di scrittura non lo ha scritto
+     * sul file, l'indice resta in memoria e {@link #readSeekIndex(File)} lo legge da lì.
+     */
+    TrackMetadata putSeekIndex(File file, long size, long lastModified, Mp3SeekIndex index) {
+        String key = keyOf(file);
+        byte[] indexBytes = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            index.writeTo(new DataOutputStream(bytes));
+            indexBytes = bytes.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        synchronized (this) {
+            TrackMetadata previous = entries.get(key);
+            String artist = null;
+            String album = null;
+            if (previous != null && previous.matches(size, lastModified)) {
+                artist = previous.getArtist();
+                album = previous.getAlbum();
+            }
+
+            TrackMetadata metadata = new TrackMetadata(size, lastModified, index.getDurationSeconds(),
+                    index.getFrameCount(), index.getAverageBitrateKbps(), index.getSampleRate(),
+                    index.getChannelMode(), index.isVbr(), artist, album, -1,
+                    indexBytes != null ? indexBytes.length : 0);
+            putMetadata(key, metadata, indexBytes);
+            return metadata;
+        }
+    }
+
+    /**
+     * Registra i dati ricavati dalle intestazioni del file, mantenendo artista e album già risolti.
+     */
+    synchronized TrackMetadata putInfo(File file, long size, long lastModified, Mp3Info info) {
+        String key = keyOf(file);
+        TrackMetadata previous = entries.get(key);
+        String artist = null;
+        String album = null;
+        if (previous != null && previous.matches(size, lastModified)) {
+            artist = previous.getArtist();
+            album = previous.getAlbum();
+        }
+
+        TrackMetadata metadata = new TrackMetadata(size, lastModified, info.getDurationSeconds(),
+                info.getFrameCount(), info.getBitrateKbps(), info.getSampleRate(), info.getChannelMode(),
+                info.isVbr(), artist, album, -1, 0);
+        putMetadata(key, metadata, null);
+        return metadata;
+    }
+
+    /**
+     * Registra la voce in memoria, sotto il lock dell'archivio, e accoda la scrittura del record.
+     * Se la scrittura fallisce la voce resta comunque disponibile fino alla chiusura dell'applicazione.
+     *
+     * @param indexBytes l'indice di seek da scrivere insieme alla voce, oppure null
+     */
+    private void putMetadata(String key, TrackMetadata metadata, byte[] indexBytes) {
+        entries.put(key, metadata);
+        if (indexBytes != null) {
+            unwrittenSeekIndexes.put(key, indexBytes);
+        } else if (!metadata.isSeekIndexUnwritten()) {
+            unwrittenSeekIndexes.remove(key);
+        }
+        writer.execute(() -> append(key));
+    }
+
+    /**
+     * Scrive sul thread di scrittura lo stato corrente della voce. Un indice di seek ancora in memoria
+     * viene scritto per primo e il buffer svuotato subito, perché solo allora la voce può riferirsi
+     * alla sua posizione nel file; il record della voce invece viene svuotato sul file solo quando
+     * non ci sono altri record in coda, così una serie di aggiornamenti costa una sola scrittura.
+     */
+    private void append(String key) {
+        byte[] index;
+        synchronized (this) {
+            index = unwrittenSeekIndexes.get(key);
+        }
+
+        try {
+            DataOutputStream out = openOutput();
+            if (index != null) {
+                long indexOffset = appendRecord(out, RECORD_SEEK_INDEX, index);
+                out.flush();
+                synchronized (this) {
+                    TrackMetadata current = entries.get(key);
+                    if (unwrittenSeekIndexes.remove(key, index) && current != null && current.isSeekIndexUnwritten()) {
+                        entries.put(key, current.withSeekIndex(indexOffset, index.length));
+                    }
+                }
+            }
+
+            TrackMetadata metadata = entries.get(key);
+            // Con un indice ancora da scrivere il record è rimandato all'aggiornamento accodato insieme all'indice
+            if (metadata == null || metadata.isSeekIndexUnwritten()) return;
+
+            appendRecord(out, RECORD_METADATA, encodeMetadata(key, metadata));
+            metadataRecords++;
+            if (writer.getQueue().isEmpty()) {
+                out.flush();
+            }
+
+            if (metadataRecords > entries.size() * 2 + COMPACTION_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Aggiunge un record in fondo al log.
+     *
+     * @return la posizione nel file del contenuto del record
+     */
+    private long appendRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        writeRecord(out, type, payload);
+
+        long offset = length + RECORD_HEADER_LENGTH;
+        length += RECORD_HEADER_LENGTH + payload.length;
+        return offset;
+    }
+
+    private DataOutputStream openOutput() throws IOException {
+        if (output == null) {
+            Files.createDirectories(storePath.getParent());
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storePath.toFile(), true)));
+            if (length == 0) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                length = HEADER_LENGTH;
+            }
+        }
+        return output;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Legge il log all'avvio. Un record incompleto in fondo al file, ad esempio dopo una chiusura
+     * improvvisa dell'applicazione, viene scartato troncando il file all'ultimo record valido.
+     */
+    private void load() {
+        if (!Files.exists(storePath)) return;
+
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storePath)))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                validLength = HEADER_LENGTH;
+                while (true) {
+                    int type = in.read();
+                    if (type == -1) break;
+
+                    int recordLength = in.readInt();
+                    if (recordLength < 0 || recordLength > MAX_RECORD_LENGTH) break;
+
+                    if (type == RECORD_METADATA) {
+                        byte[] payload = new byte[recordLength];
+                        in.readFully(payload);
+                        readMetadata(payload);
+                    } else if (type != RECORD_SEEK_INDEX || Mp3SeekIndex.skipFully(in, recordLength) < recordLength) {
+                        break;
+                    }
+                    validLength += RECORD_HEADER_LENGTH + recordLength;
+                }
+            }
+        } catch (IOException e) {
+            // Record troncato: si tiene la parte del log letta fino a qui
+        }
+
+        try {
+            if (validLength == 0) {
+                entries.clear();
+                metadataRecords = 0;
+                Files.deleteIfExists(storePath);
+            } else if (Files.size(storePath) > validLength) {
+                try (FileChannel channel = FileChannel.open(storePath, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+            length = validLength;
+
+            if (metadataRecords > entries.size() * 2 + COMPACTION_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readMetadata(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String key = in.readUTF();
+        TrackMetadata metadata = new TrackMetadata(in.readLong(), in.readLong(), in.readDouble(), in.readInt(),
+                in.readInt(), in.readInt(), in.readInt(), in.readBoolean(), readOptionalString(in),
+                readOptionalString(in), in.readLong(), in.readInt());
+        entries.put(key, metadata);
+        metadataRecords++;
+    }
+
+    private static byte[] encodeMetadata(String key, TrackMetadata metadata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeLong(metadata.getSize());
+        out.writeLong(metadata.getLastModified());
+        out.writeDouble(metadata.getDurationSeconds());
+        out.writeInt(metadata.getFrameCount());
+        out.writeInt(metadata.getBitrateKbps());
+        out.writeInt(metadata.getSampleRate());
+        out.writeInt(metadata.getChannelMode());
+        out.writeBoolean(metadata.isVbr());
+        writeOptionalString(out, metadata.getArtist());
+        writeOptionalString(out, metadata.getAlbum());
+        out.writeLong(metadata.getSeekIndexOffset());
+        out.writeInt(metadata.getSeekIndexLength());
+        return bytes.toByteArray();
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Riscrive il log con le sole voci correnti in un file temporaneo e lo sostituisce all'originale.
+     * Le voci vengono copiate sotto il lock e il file viene scritto fuori; sotto il lock si sostituisce
+     * il file e si aggiornano le posizioni degli indici di seek, anche nelle voci cambiate nel frattempo.
+     * Le voci con un indice ancora da scrivere sono lasciate ai record in coda.
+     */
+    private void compact() throws IOException {
+        closeOutput();
+        Path temporary = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+        List<Map.Entry<String, TrackMetadata>> current;
+        synchronized (this) {
+            current = new ArrayList<>(entries.entrySet());
+        }
+
+        Map<Long, Long> movedIndexes = new HashMap<>();
+        int records = 0;
+        long position = HEADER_LENGTH;
+        try (RandomAccessFile source = new RandomAccessFile(storePath.toFile(), "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (Map.Entry<String, TrackMetadata> entry : current) {
+                TrackMetadata metadata = entry.getValue();
+                if (metadata.isSeekIndexUnwritten()) continue;
+
+                long indexOffset = -1;
+                int indexLength = 0;
+                byte[] index = metadata.hasSeekIndex() ? readSeekIndexBytes(source, metadata) : null;
+                if (index != null) {
+                    writeRecord(out, RECORD_SEEK_INDEX, index);
+                    indexOffset = position + RECORD_HEADER_LENGTH;
+                    indexLength = index.length;
+                    position += RECORD_HEADER_LENGTH + index.length;
+                    movedIndexes.put(metadata.getSeekIndexOffset(), indexOffset);
+                }
+
+                byte[] payload = encodeMetadata(entry.getKey(), metadata.withSeekIndex(indexOffset, indexLength));
+                writeRecord(out, RECORD_METADATA, payload);
+                position += RECORD_HEADER_LENGTH + payload.length;
+                records++;
+            }
+        }
+
+        synchronized (this) {
+            Files.move(temporary, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.replaceAll((key, metadata) -> relocate(metadata, movedIndexes));
+        }
+        length = position;
+        metadataRecords = records;
+    }
+
+    private static TrackMetadata relocate(TrackMetadata metadata, Map<Long, Long> movedIndexes) {
+        if (!metadata.hasSeekIndex() || metadata.isSeekIndexUnwritten()) return metadata;
+
+        Long offset = movedIndexes.get(metadata.getSeekIndexOffset());
+        if (offset == null) {
+            return metadata.withSeekIndex(-1, 0);
+        }
+        return metadata.withSeekIndex(offset, metadata.getSeekIndexLength());
+    }
+
+    /**
+     * Restituisce l'indice di seek registrato per il file, leggendolo dalla memoria se non è ancora
+     * stato scritto e altrimenti dal file dell'archivio. Il file viene aperto sotto il lock, così
+     * una compattazione non può sostituirlo tra la lettura della posizione e la sua apertura.
+     *
+     * @return l'indice oppure null se manca, se il file è cambiato o se non è leggibile
+     */
+    Mp3SeekIndex readSeekIndex(File file) {
+        String key = keyOf(file);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        TrackMetadata metadata;
+        byte[] bytes;
+        RandomAccessFile source = null;
+
+        synchronized (this) {
+            metadata = entries.get(key);
+            if (metadata == null || !metadata.matches(size, lastModified) || !metadata.hasSeekIndex()) {
+                return null;
+            }
+
+            bytes = unwrittenSeekIndexes.get(key);
+            if (bytes == null && !metadata.isSeekIndexUnwritten()) {
+                try {
+                    source = new RandomAccessFile(storePath.toFile(), "r");
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+
+        if (source != null) {
+            try (RandomAccessFile in = source) {
+                bytes = readSeekIndexBytes(in, metadata);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        if (bytes == null) return null;
+
+        try {
+            return Mp3SeekIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readSeekIndexBytes(RandomAccessFile source, TrackMetadata metadata) {
+        try {
+            byte[] bytes = new byte[metadata.getSeekIndexLength()];
+            source.seek(metadata.getSeekIndexOffset());
+            source.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static String keyOf(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Scrive i record ancora in coda e chiude il file; le chiamate successive non hanno effetto.
+     */
+    void close() {
+        if (writer.isShutdown()) return;
+
+        writer.execute(this::closeOutput);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            output = null;
+        }
+    }
+}
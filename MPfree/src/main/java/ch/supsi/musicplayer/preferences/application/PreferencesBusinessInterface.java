@@ -4,4 +4,10 @@ public interface PreferencesBusinessInterface {
     String getCurrentLanguage();
     Object getPreference(String key);
     boolean saveLanguage(String languageTag);
+    int getCrossfadeSeconds();
+    boolean saveCrossfadeSeconds(int seconds);
+    int getLastFmConcurrency();
+    int getLastFmCacheTtlDays();
+    int getLastFmCacheMaxEntries();
+    boolean isPlaylistCopySongs();
 }
@@ -4,6 +4,8 @@ import ch.supsi.musicplayer.preferences.business.PreferencesModel;
 import ch.supsi.musicplayer.translations.application.TranslationsController;
 import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
 import javafx.stage.Stage;
 
 import java.util.List;
@@ -15,6 +17,7 @@ public class PreferencesController {
     private final TranslationsController translationsController;
 
     @FXML private ComboBox<String> languageComboBox;
+    @FXML private Spinner<Integer> crossfadeSpinner;
 
     public PreferencesController() {
         preferencesModel = PreferencesModel.getInstance();
@@ -51,6 +54,30 @@ public class PreferencesController {
         return preferencesModel.saveLanguage(languageTag);
     }
 
+    public int getCrossfadeSeconds() {
+        return preferencesModel.getCrossfadeSeconds();
+    }
+
+    public boolean saveCrossfadeSeconds(int seconds) {
+        return preferencesModel.saveCrossfadeSeconds(seconds);
+    }
+
+    public int getLastFmConcurrency() {
+        return preferencesModel.getLastFmConcurrency();
+    }
+
+    public int getLastFmCacheTtlDays() {
+        return preferencesModel.getLastFmCacheTtlDays();
+    }
+
+    public int getLastFmCacheMaxEntries() {
+        return preferencesModel.getLastFmCacheMaxEntries();
+    }
+
+    public boolean isPlaylistCopySongs() {
+        return preferencesModel.isPlaylistCopySongs();
+    }
+
     @FXML
     public void initialize() {
         List<String> supportedLanguages = translationsController.getSupportedLanguageTags();
@@ -61,6 +88,9 @@ public class PreferencesController {
         if (currentLanguage != null) {
             languageComboBox.setValue(currentLanguage);
         }
+
+        crossfadeSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(
+                0, PreferencesModel.MAX_CROSSFADE_SECONDS, getCrossfadeSeconds()));
     }
 
     @FXML
@@ -70,6 +100,11 @@ public class PreferencesController {
             saveLanguage(selectedLanguage);
             translationsController.changeLanguage(selectedLanguage);
         }
+
+        Integer crossfadeSeconds = crossfadeSpinner.getValue();
+        if (crossfadeSeconds != null) {
+            saveCrossfadeSeconds(crossfadeSeconds);
+        }
         
         Stage stage = (Stage) languageComboBox.getScene().getWindow();
         stage.close();
@@ -2,12 +2,21 @@ package ch.supsi.musicplayer.preferences.business;
 
 import ch.supsi.musicplayer.preferences.application.PreferencesBusinessInterface;
 import ch.supsi.musicplayer.preferences.dataaccess.PreferencesPropertiesDataAccess;
+import ch.supsi.musicplayer.service.LastFmCache;
+import ch.supsi.musicplayer.service.LastFmLookupExecutor;
 import ch.supsi.musicplayer.translations.business.TranslationsModel;
 
 import java.util.Properties;
 
 
 public class PreferencesModel implements PreferencesBusinessInterface {
+    public static final int MAX_CROSSFADE_SECONDS = 12;
+
+    private static final String CROSSFADE_KEY = "crossfade-seconds";
+    private static final String LASTFM_CONCURRENCY_KEY = "lastfm-concurrency";
+    private static final String LASTFM_CACHE_TTL_KEY = "lastfm-cache-ttl-days";
+    private static final String LASTFM_CACHE_SIZE_KEY = "lastfm-cache-max-entries";
+    private static final String PLAYLIST_COPY_SONGS_KEY = "playlist-copy-songs";
 
     private static PreferencesModel instance;
 
@@ -56,4 +65,84 @@ public class PreferencesModel implements PreferencesBusinessInterface {
         userPreferences.setProperty("language-tag", languageTag);
         return preferencesDao.savePreferences(userPreferences);
     }
+
+    /**
+     * Durata in secondi della dissolvenza incrociata tra due tracce; 0 se disattivata.
+     */
+    @Override
+    public int getCrossfadeSeconds() {
+        String value = userPreferences.getProperty(CROSSFADE_KEY);
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Math.min(MAX_CROSSFADE_SECONDS, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean saveCrossfadeSeconds(int seconds) {
+        if (seconds < 0 || seconds > MAX_CROSSFADE_SECONDS) return false;
+        userPreferences.setProperty(CROSSFADE_KEY, String.valueOf(seconds));
+        return preferencesDao.savePreferences(userPreferences);
+    }
+
+    /**
+     * Numero massimo di ricerche su Last.fm eseguite contemporaneamente.
+     */
+    @Override
+    public int getLastFmConcurrency() {
+        String value = userPreferences.getProperty(LASTFM_CONCURRENCY_KEY);
+        if (value == null) {
+            return LastFmLookupExecutor.DEFAULT_CONCURRENCY;
+        }
+
+        try {
+            return Math.max(1, Math.min(LastFmLookupExecutor.MAX_CONCURRENCY, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            return LastFmLookupExecutor.DEFAULT_CONCURRENCY;
+        }
+    }
+
+    /**
+     * Giorni di validità delle risposte di Last.fm registrate nella cache.
+     */
+    @Override
+    public int getLastFmCacheTtlDays() {
+        return getPositiveInt(LASTFM_CACHE_TTL_KEY, LastFmCache.DEFAULT_TTL_DAYS);
+    }
+
+    /**
+     * Numero massimo di risposte di Last.fm registrate nella cache.
+     */
+    @Override
+    public int getLastFmCacheMaxEntries() {
+        return getPositiveInt(LASTFM_CACHE_SIZE_KEY, LastFmCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Se true i brani aggiunti alle playlist vengono copiati nell'archivio della libreria,
+     * altrimenti le playlist fanno riferimento ai file nella loro posizione originale.
+     */
+    @Override
+    public boolean isPlaylistCopySongs() {
+        return Boolean.parseBoolean(userPreferences.getProperty(PLAYLIST_COPY_SONGS_KEY, "false").trim());
+    }
+
+    private int getPositiveInt(String key, int defaultValue) {
+        String value = userPreferences.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
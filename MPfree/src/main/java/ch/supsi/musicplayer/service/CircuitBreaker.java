@@ -0,0 +1,65 @@
+package ch.supsi.musicplayer.service;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Interruttore che sospende le richieste dopo troppi errori consecutivi.
+ * Quando è aperto le richieste vengono rifiutate subito; trascorso il periodo di pausa ne lascia
+ * passare una di prova, che lo richiude se va a buon fine o lo riapre se fallisce.
+ */
+final class CircuitBreaker {
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+
+    /**
+     * @param clock orologio in nanosecondi, di norma {@link System#nanoTime()}
+     */
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true se la richiesta può partire; in stato di prova passa solo la prima
+     */
+    synchronized boolean allowRequest() {
+        if (state == State.CLOSED) return true;
+
+        // Se la richiesta di prova non ha mai dato esito, ad esempio perché annullata, se ne concede un'altra
+        long now = clock.getAsLong();
+        if (now - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
@@ -0,0 +1,377 @@
+package ch.supsi.musicplayer.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Cache persistente delle risposte di Last.fm in ~/.musicplayer, indicizzata per artista e titolo normalizzati.
+ * Registra sia i metadati trovati sia le ricerche senza risultato, così al riavvio un brano già cercato
+ * non genera nessuna richiesta finché la voce non scade. Le voci sono tenute in ordine di utilizzo
+ * e oltre il numero massimo vengono scartate le meno usate di recente.
+ * Come il {@link ch.supsi.musicplayer.model.TrackMetadataStore} il file è un log in sola aggiunta,
+ * riscritto con le sole voci valide quando i record superati diventano troppi.
+ * Le voci in memoria sono protette dal lock della cache, mentre le scritture sul file sono eseguite
+ * in ordine da un unico thread: una ricerca nella cache non attende mai l'accesso al disco.
+ */
+public final class LastFmCache {
+    public static final int DEFAULT_TTL_DAYS = 30;
+    public static final int DEFAULT_MAX_ENTRIES = 20000;
+    private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofDays(3);
+
+    private static final int MAGIC = 0x4D504C46;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 4;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+    private static final int COMPACTION_SLACK = 256;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private static final String userHomeDirectory = System.getProperty("user.home");
+
+    private static final String cacheDirectory = ".musicplayer";
+
+    private static final String cacheFile = "lastfm-cache.db";
+
+    private static LastFmCache instance;
+
+    private final Path cachePath;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, CachedResult> entries;
+    private Duration timeToLive = Duration.ofDays(DEFAULT_TTL_DAYS);
+    private Duration negativeTimeToLive = DEFAULT_NEGATIVE_TTL;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "lastfm-cache-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Usati solo dal thread di scrittura, oppure durante il caricamento prima che parta
+    private DataOutputStream output;
+    private long length = 0;
+    private int records = 0;
+
+    /**
+     * Cache salvata nel file indicato, ad esempio in una cartella temporanea nei test.
+     *
+     * @param clock orologio in millisecondi usato per la scadenza delle voci
+     */
+    LastFmCache(Path cachePath, LongSupplier clock) {
+        this.cachePath = cachePath;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        load();
+    }
+
+    public static synchronized LastFmCache getInstance() {
+        if (instance == null) {
+            instance = new LastFmCache(Path.of(userHomeDirectory, cacheDirectory, cacheFile),
+                    System::currentTimeMillis);
+        }
+
+        return instance;
+    }
+
+    public static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.shutdown();
+        }
+        instance = null;
+    }
+
+    /**
+     * Chiave della cache: artista e titolo senza differenze di maiuscole e spazi.
+     */
+    public static String keyOf(String artist, String title) {
+        return normalize(artist) + '\u0000' + normalize(title);
+    }
+
+    private static String normalize(String value) {
+        if (value == null) return "";
+        return WHITESPACE.matcher(value.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return il risultato registrato per la chiave, oppure null se manca o è scaduto
+     */
+    public synchronized CachedResult get(String key) {
+        CachedResult result = entries.get(key);
+        if (result != null && isExpired(result, clock.getAsLong())) {
+            entries.remove(key);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Registra il risultato di una ricerca; metadata null indica che la ricerca non ha trovato nulla.
+     * La voce è subito disponibile in memoria, mentre il record viene accodato al thread di scrittura.
+     */
+    public void put(String key, LastFmService.SongMetadata metadata) {
+        CachedResult result = new CachedResult(metadata, clock.getAsLong());
+        synchronized (this) {
+            entries.put(key, result);
+        }
+        writer.execute(() -> append(key, result));
+    }
+
+    /**
+     * Scrive un record in fondo al log, sul thread di scrittura. Il buffer viene svuotato sul file
+     * solo quando non ci sono altri record in coda, così una serie di risultati costa una sola scrittura.
+     */
+    private void append(String key, CachedResult result) {
+        try {
+            DataOutputStream out = openOutput();
+            byte[] payload = encode(key, result);
+            out.writeInt(payload.length);
+            out.write(payload);
+            if (writer.getQueue().isEmpty()) {
+                out.flush();
+            }
+            length += RECORD_HEADER_LENGTH + payload.length;
+            records++;
+
+            if (records > size() * 2 + COMPACTION_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            // La voce resta comunque disponibile fino alla chiusura dell'applicazione
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Imposta per quanto tempo restano validi i metadati trovati e le ricerche senza risultato.
+     * Una ricerca senza risultato non resta mai valida più a lungo di un risultato trovato.
+     */
+    public synchronized void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLive = timeToLive.compareTo(DEFAULT_NEGATIVE_TTL) < 0 ? timeToLive : DEFAULT_NEGATIVE_TTL;
+    }
+
+    /**
+     * Imposta il numero massimo di voci; le meno usate di recente vengono scartate subito.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        Iterator<Map.Entry<String, CachedResult>> iterator = entries.entrySet().iterator();
+        while (entries.size() > this.maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(CachedResult result, long now) {
+        Duration ttl = result.isFound() ? timeToLive : negativeTimeToLive;
+        return now - result.storedAt > ttl.toMillis();
+    }
+
+    private DataOutputStream openOutput() throws IOException {
+        if (output == null) {
+            Files.createDirectories(cachePath.getParent());
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cachePath.toFile(), true)));
+            if (length == 0) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                length = HEADER_LENGTH;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Legge il log all'avvio scartando le voci scadute. Un record incompleto in fondo al file
+     * viene eliminato troncando il file all'ultimo record valido.
+     */
+    private void load() {
+        if (!Files.exists(cachePath)) return;
+
+        long validLength = 0;
+        long now = clock.getAsLong();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                validLength = HEADER_LENGTH;
+                while (true) {
+                    int recordLength;
+                    try {
+                        recordLength = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (recordLength < 0 || recordLength > MAX_RECORD_LENGTH) break;
+
+                    byte[] payload = new byte[recordLength];
+                    in.readFully(payload);
+                    decode(payload, now);
+                    records++;
+                    validLength += RECORD_HEADER_LENGTH + recordLength;
+                }
+            }
+        } catch (IOException e) {
+            // Record troncato: si tiene la parte del log letta fino a qui
+        }
+
+        try {
+            if (validLength == 0) {
+                entries.clear();
+                records = 0;
+                Files.deleteIfExists(cachePath);
+            } else if (Files.size(cachePath) > validLength) {
+                try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+            length = validLength;
+
+            if (records > entries.size() * 2 + COMPACTION_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void decode(byte[] payload, long now) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String key = in.readUTF();
+        long storedAt = in.readLong();
+        LastFmService.SongMetadata metadata = null;
+        if (in.readBoolean()) {
+            metadata = new LastFmService.SongMetadata(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+        }
+
+        CachedResult result = new CachedResult(metadata, storedAt);
+        if (isExpired(result, now)) {
+            entries.remove(key);
+        } else {
+            entries.put(key, result);
+        }
+    }
+
+    private static byte[] encode(String key, CachedResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeLong(result.storedAt);
+        out.writeBoolean(result.isFound());
+        if (result.isFound()) {
+            out.writeUTF(result.metadata.getTitle());
+            out.writeUTF(result.metadata.getArtist());
+            out.writeUTF(result.metadata.getAlbum());
+            out.writeInt(result.metadata.getDuration());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Riscrive il log con le sole voci correnti, dalla meno usata di recente, e lo sostituisce all'originale.
+     * Le voci vengono copiate sotto il lock, il file viene scritto fuori.
+     */
+    private void compact() throws IOException {
+        closeOutput();
+        Path temporary = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+        List<Map.Entry<String, CachedResult>> current;
+        synchronized (this) {
+            current = new ArrayList<>(entries.entrySet());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = HEADER_LENGTH;
+
+            for (Map.Entry<String, CachedResult> entry : current) {
+                byte[] payload = encode(entry.getKey(), entry.getValue());
+                out.writeInt(payload.length);
+                out.write(payload);
+                position += RECORD_HEADER_LENGTH + payload.length;
+            }
+            length = position;
+        }
+
+        Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = current.size();
+    }
+
+    /**
+     * Scrive i record ancora in coda e chiude il file; le chiamate successive non hanno effetto.
+     */
+    void shutdown() {
+        if (writer.isShutdown()) return;
+
+        writer.execute(this::closeOutput);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            output = null;
+        }
+    }
+
+    /**
+     * Risultato registrato di una ricerca: i metadati trovati oppure l'assenza di risultati.
+     */
+    public static final class CachedResult {
+        private final LastFmService.SongMetadata metadata;
+        private final long storedAt;
+
+        private CachedResult(LastFmService.SongMetadata metadata, long storedAt) {
+            this.metadata = metadata;
+            this.storedAt = storedAt;
+        }
+
+        public boolean isFound() {
+            return metadata != null;
+        }
+
+        public Optional<LastFmService.SongMetadata> getMetadata() {
+            return Optional.ofNullable(metadata);
+        }
+    }
+}
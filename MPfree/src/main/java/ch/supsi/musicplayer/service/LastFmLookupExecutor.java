@@ -0,0 +1,164 @@
+package ch.supsi.musicplayer.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Esecutore condiviso delle ricerche su Last.fm.
+ * Le ricerche vengono eseguite da un numero limitato di thread dedicati, così un'importazione
+ * di migliaia di brani non satura il pool comune usato anche dagli stream paralleli.
+ * La coda è ordinata per priorità: il brano in riproduzione e quelli visibili passano davanti
+ * a quelli caricati in background. Ogni ricerca è associata a una chiave (il brano che l'ha richiesta)
+ * con cui può essere promossa o annullata, anche se è già in corso.
+ */
+public final class LastFmLookupExecutor {
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int MAX_CONCURRENCY = 16;
+
+    /**
+     * Priorità delle ricerche, dalla più urgente.
+     */
+    public enum Priority {
+        PLAYING,
+        VISIBLE,
+        BACKGROUND
+    }
+
+    private static LastFmLookupExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Object, LookupTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private LastFmLookupExecutor(int concurrency) {
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "lastfm-lookup");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized LastFmLookupExecutor getInstance() {
+        if (instance == null) {
+            instance = new LastFmLookupExecutor(DEFAULT_CONCURRENCY);
+        }
+
+        return instance;
+    }
+
+    public static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.executor.shutdownNow();
+        }
+        instance = null;
+    }
+
+    /**
+     * Accoda una ricerca. Se per la stessa chiave ce n'è già una in attesa,
+     * ne viene soltanto alzata la priorità.
+     */
+    public void submit(Object key, Priority priority, Runnable lookup) {
+        LookupTask task = new LookupTask(key, priority, sequence.getAndIncrement(), lookup);
+        LookupTask existing = tasks.putIfAbsent(key, task);
+        if (existing != null) {
+            prioritize(key, priority);
+            return;
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Alza la priorità della ricerca ancora in coda per la chiave; le ricerche già in corso
+     * o con priorità più alta non vengono modificate.
+     */
+    public void prioritize(Object key, Priority priority) {
+        LookupTask task = tasks.get(key);
+        if (task == null || task.priority.compareTo(priority) <= 0) return;
+
+        // La priorità di un elemento non può cambiare mentre è nella coda: va tolto e reinserito
+        if (executor.getQueue().remove(task)) {
+            task.priority = priority;
+            executor.execute(task);
+        }
+    }
+
+    public void prioritizeAll(Collection<?> keys, Priority priority) {
+        for (Object key : keys) {
+            prioritize(key, priority);
+        }
+    }
+
+    /**
+     * Annulla la ricerca associata alla chiave, interrompendola se è già in corso.
+     */
+    public void cancel(Object key) {
+        LookupTask task = tasks.remove(key);
+        if (task != null) {
+            executor.getQueue().remove(task);
+            task.cancel(true);
+        }
+    }
+
+    public void cancelAll(Collection<?> keys) {
+        for (Object key : keys) {
+            cancel(key);
+        }
+    }
+
+    /**
+     * Imposta il numero massimo di ricerche eseguite contemporaneamente.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, concurrency));
+        if (concurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        } else {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return il numero di ricerche in attesa di un thread libero
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    private final class LookupTask extends FutureTask<Void> implements Comparable<LookupTask> {
+        private final Object key;
+        private final long order;
+        private volatile Priority priority;
+
+        private LookupTask(Object key, Priority priority, long order, Runnable lookup) {
+            super(lookup, null);
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(LookupTask other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+
+        @Override
+        protected void done() {
+            tasks.remove(key, this);
+        }
+    }
+}
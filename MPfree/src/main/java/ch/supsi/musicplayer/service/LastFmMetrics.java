@@ -0,0 +1,120 @@
+package ch.supsi.musicplayer.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistiche delle richieste a Last.fm: richieste in attesa del limitatore, tempi di risposta
+ * delle ultime richieste, tentativi ripetuti ed errori per tipo.
+ */
+public final class LastFmMetrics {
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttledResponses = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+    private final AtomicLong networkErrors = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+
+    LastFmMetrics() {
+    }
+
+    void requestQueued() {
+        queueDepth.incrementAndGet();
+    }
+
+    void requestDequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    synchronized void recordLatency(long nanos) {
+        requests.incrementAndGet();
+        latencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    void recordStatus(int statusCode) {
+        if (statusCode == 429) {
+            throttledResponses.incrementAndGet();
+        } else if (statusCode >= 500) {
+            serverErrors.incrementAndGet();
+        }
+    }
+
+    void recordNetworkError() {
+        networkErrors.incrementAndGet();
+    }
+
+    void recordRejected() {
+        rejectedRequests.incrementAndGet();
+    }
+
+    /**
+     * @return le richieste in attesa di un gettone del limitatore di frequenza
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledResponses.get();
+    }
+
+    public long getServerErrorCount() {
+        return serverErrors.get();
+    }
+
+    public long getNetworkErrorCount() {
+        return networkErrors.get();
+    }
+
+    /**
+     * @return le richieste rifiutate senza contattare il server perché le ricerche erano sospese
+     */
+    public long getRejectedCount() {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * Percentile del tempo di risposta sulle ultime richieste completate.
+     *
+     * @param percentile valore tra 0 e 100, ad esempio 50 per la mediana o 99
+     * @return il tempo in millisecondi, oppure 0 se non ci sono ancora richieste
+     */
+    public synchronized double getLatencyPercentileMillis(double percentile) {
+        if (latencyCount == 0) return 0;
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * latencyCount) - 1;
+        return sorted[Math.max(0, Math.min(latencyCount - 1, index))] / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d requests=%d p50=%.0fms p95=%.0fms p99=%.0fms retries=%d throttled=%d "
+                        + "serverErrors=%d networkErrors=%d rejected=%d",
+                getQueueDepth(), getRequestCount(), getLatencyPercentileMillis(50), getLatencyPercentileMillis(95),
+                getLatencyPercentileMillis(99), getRetryCount(), getThrottledCount(), getServerErrorCount(),
+                getNetworkErrorCount(), getRejectedCount());
+    }
+}
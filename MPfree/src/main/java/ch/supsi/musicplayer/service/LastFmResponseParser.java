@@ -0,0 +1,203 @@
+package ch.supsi.musicplayer.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Lettura in streaming delle risposte JSON di Last.fm.
+ * Invece di costruire l'albero completo della risposta vengono letti solo i campi necessari,
+ * saltando tutto il resto senza conservarlo; la lettura si ferma appena i campi sono stati trovati,
+ * così ad esempio dei risultati di una ricerca viene esaminato solo il primo.
+ */
+final class LastFmResponseParser {
+    private LastFmResponseParser() {
+    }
+
+    /**
+     * Primo risultato di una ricerca: titolo e artista come riportati da Last.fm.
+     */
+    static final class TrackMatch {
+        private final String name;
+        private final String artist;
+
+        private TrackMatch(String name, String artist) {
+            this.name = name;
+            this.artist = artist;
+        }
+
+        String getName() { return name; }
+        String getArtist() { return artist; }
+    }
+
+    /**
+     * Legge la risposta di track.search fino al primo brano trovato.
+     *
+     * @return il primo risultato, oppure null se la ricerca non ha trovato nulla
+     */
+    static TrackMatch parseFirstMatch(Reader body) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            if (!enterObject(reader, "results") || !enterObject(reader, "trackmatches") || !enterField(reader, "track")) {
+                return null;
+            }
+
+            // Con un solo risultato alcune risposte riportano l'oggetto invece di un array
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (!reader.hasNext()) return null;
+            }
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) return null;
+
+            String name = null;
+            String artist = null;
+            reader.beginObject();
+            while (reader.hasNext() && (name == null || artist == null)) {
+                switch (reader.nextName()) {
+                    case "name":
+                        name = readString(reader);
+                        break;
+                    case "artist":
+                        artist = readNameOrString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            return name != null && artist != null ? new TrackMatch(name, artist) : null;
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected Last.fm response", e);
+        }
+    }
+
+    /**
+     * Legge la risposta di track.getInfo.
+     *
+     * @return i metadati del brano, oppure null se la risposta non contiene il brano
+     */
+    static LastFmService.SongMetadata parseTrackInfo(Reader body) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            if (!enterObject(reader, "track")) return null;
+
+            String name = null;
+            String artist = null;
+            String album = null;
+            int duration = 0;
+            boolean durationRead = false;
+            while (reader.hasNext() && (name == null || artist == null || album == null || !durationRead)) {
+                switch (reader.nextName()) {
+                    case "name":
+                        name = readString(reader);
+                        break;
+                    case "artist":
+                        artist = readNameOrString(reader);
+                        break;
+                    case "album":
+                        album = readAlbumTitle(reader);
+                        break;
+                    case "duration":
+                        duration = readInt(reader);
+                        durationRead = true;
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+
+            if (name == null || artist == null) return null;
+            return new LastFmService.SongMetadata(name, artist, album != null ? album : "Unknown Album", duration);
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected Last.fm response", e);
+        }
+    }
+
+    /**
+     * Avanza fino al campo indicato dell'oggetto corrente (o della radice) e ne apre il valore.
+     *
+     * @return false se il campo manca o non è un oggetto
+     */
+    private static boolean enterObject(JsonReader reader, String field) throws IOException {
+        if (!enterField(reader, field) || reader.peek() != JsonToken.BEGIN_OBJECT) return false;
+        reader.beginObject();
+        return true;
+    }
+
+    /**
+     * Avanza fino al campo indicato dell'oggetto corrente saltando i precedenti; se il lettore è
+     * all'inizio del documento apre prima l'oggetto radice.
+     */
+    private static boolean enterField(JsonReader reader, String field) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+        }
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field)) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * L'artista è una stringa nei risultati di ricerca e un oggetto con il campo "name" nei dettagli.
+     */
+    private static String readNameOrString(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return readString(reader);
+        }
+        return readObjectField(reader, "name");
+    }
+
+    private static String readAlbumTitle(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        return readObjectField(reader, "title");
+    }
+
+    /**
+     * Legge un campo stringa dell'oggetto corrente e ne consuma il resto.
+     */
+    private static String readObjectField(JsonReader reader, String field) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (value == null && name.equals(field)) {
+                value = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (reader.peek() != JsonToken.STRING && reader.peek() != JsonToken.NUMBER) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * La durata arriva come numero o come stringa, a volte vuota.
+     */
+    private static int readInt(JsonReader reader) throws IOException {
+        String value = readString(reader);
+        if (value == null || value.isEmpty()) return 0;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
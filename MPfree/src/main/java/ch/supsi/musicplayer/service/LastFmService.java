@@ -1,170 +1,360 @@
 package ch.supsi.musicplayer.service;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
 
+/**
+ * Client Last.fm condiviso da tutta l'applicazione.
+ * Un solo {@link HttpClient} mantiene aperte e riutilizza le connessioni verso il server (HTTP/2 se supportato),
+ * invece di un client con il proprio pool di connessioni e thread per ogni brano.
+ * Tutte le richieste passano da un limitatore di frequenza a gettoni, per restare entro i limiti del servizio;
+ * le risposte 429 e 5xx vengono ripetute con attese crescenti e dopo troppi errori consecutivi
+ * le ricerche vengono sospese per un po' invece di insistere.
+ */
 public class LastFmService {
-    private static final String BASE_URL = "http://ws.audioscrobbler.com/2.0/";
+    private static final String BASE_URL = "https://ws.audioscrobbler.com/2.0/";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final Duration LOOKUP_TIMEOUT = Duration.ofMinutes(2);
+    // Last.fm chiede di non superare in media 5 richieste al secondo
+    private static final int RATE_LIMIT_BURST = 5;
+    private static final double RATE_LIMIT_PER_SECOND = 5.0;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 60_000;
+
+    private static LastFmService instance;
+
+    private final String baseUrl;
     private final HttpClient httpClient;
-    
-    // Pattern per estrarre artista e titolo da nomi file comuni
-    private static final Pattern[] FILENAME_PATTERNS = {
-        // Pattern per "Artist - Title"
-        Pattern.compile("(.+?)\\s*-\\s*(.+)"),
-        // Pattern per "Title (Official Video)"
-        Pattern.compile("(.+?)\\s*\\([^)]+\\)"),
-        // Pattern per "Title [Official Video]"
-        Pattern.compile("(.+?)\\s*\\[[^\\]]+\\]"),
-        // Pattern per "Title - Artist"
-        Pattern.compile("(.+?)\\s*-\\s*(.+)")
-    };
+    private final String apiKey;
+    private final LongSupplier clock;
+    private final LongUnaryOperator jitter;
+    private final LastFmCache cache;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final LastFmMetrics metrics = new LastFmMetrics();
+
+    /**
+     * Client verso un indirizzo qualsiasi, ad esempio un server locale nei test.
+     *
+     * @param baseUri indirizzo dell'API, a cui vengono aggiunti i parametri delle richieste
+     * @param clock orologio in nanosecondi usato da limitatore, interruttore e tempi di risposta
+     * @param jitter sceglie l'attesa effettiva prima di un nuovo tentativo a partire da quella piena
+     * @param cache cache in cui cercare i brani prima di contattare il server
+     */
+    LastFmService(URI baseUri, HttpClient httpClient, String apiKey, LongSupplier clock, LongUnaryOperator jitter,
+                  LastFmCache cache) {
+        this.baseUrl = baseUri.toString();
+        this.httpClient = httpClient;
+        this.apiKey = apiKey;
+        this.clock = clock;
+        this.jitter = jitter;
+        this.cache = cache;
+        this.rateLimiter = new TokenBucket(RATE_LIMIT_BURST, RATE_LIMIT_PER_SECOND, clock);
+        this.circuitBreaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS, clock);
+    }
+
+    public static synchronized LastFmService getInstance() {
+        if (instance == null) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(CONNECT_TIMEOUT)
+                    .build();
+            // Attesa scelta a caso tra metà e il valore pieno
+            instance = new LastFmService(URI.create(BASE_URL), httpClient, loadApiKey(), System::nanoTime,
+                    delay -> ThreadLocalRandom.current().nextLong(delay / 2, delay + 1), LastFmCache.getInstance());
+        }
+
+        return instance;
+    }
 
-    private static final String API_KEY = loadApiKey();
+    public static synchronized void resetInstance() {
+        instance = null;
+    }
 
-    public LastFmService() {
-        this.httpClient = HttpClient.newHttpClient();
+    public LastFmMetrics getMetrics() {
+        return metrics;
     }
 
+    /**
+     * Cerca i metadati del brano attendendo il risultato della ricerca asincrona.
+     * Se il thread viene interrotto la ricerca viene annullata, richieste in corso comprese.
+     */
     public Optional<SongMetadata> getTrackInfo(String artist, String title) {
-        // Prima prova con i parametri esatti
-        Optional<SongMetadata> result = searchTrack(artist, title);
-        
-        // Se non trova nulla, prova a cercare solo per titolo
-        if (result.isEmpty()) {
-            result = searchTrack("", title);
-        }
-        
-        return result;
+        return getTrackInfo(TrackName.of(artist, title));
     }
-    
-    private Optional<SongMetadata> searchTrack(String artist, String title) {
+
+    public Optional<SongMetadata> getTrackInfo(TrackName name) {
+        CompletableFuture<Optional<SongMetadata>> lookup = getTrackInfoAsync(name, LOOKUP_TIMEOUT);
         try {
-            // Pulisci il titolo da eventuali estensioni e caratteri speciali
-            title = cleanTitle(title);
-            
-            String url = String.format("%s?method=track.search&api_key=%s&track=%s&format=json",
-                    BASE_URL, API_KEY, encode(title));
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
+            return lookup.get();
+        } catch (InterruptedException e) {
+            // Ricerca annullata: si conserva lo stato di interruzione per chi ha avviato la ricerca
+            lookup.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Last.fm lookup failed for \"" + name.getSearchTitle() + "\": " + e.getCause());
+        }
+        return Optional.empty();
+    }
+
+    public CompletableFuture<Optional<SongMetadata>> getTrackInfoAsync(String artist, String title) {
+        return getTrackInfoAsync(TrackName.of(artist, title), LOOKUP_TIMEOUT);
+    }
+
+    public CompletableFuture<Optional<SongMetadata>> getTrackInfoAsync(TrackName name) {
+        return getTrackInfoAsync(name, LOOKUP_TIMEOUT);
+    }
+
+    /**
+     * Cerca i metadati del brano, prima nella cache e poi su Last.fm, senza occupare thread in attesa:
+     * ricerca e dettagli del brano vengono concatenati sulle risposte asincrone dell'{@link HttpClient}.
+     * Sia i risultati trovati sia le ricerche senza risultato vengono registrati nella cache;
+     * gli errori di rete no, così la ricerca viene ripetuta la volta successiva.
+     * Annullare il risultato annulla anche la richiesta in corso e quelle che sarebbero seguite.
+     *
+     * @param timeout tempo massimo per l'intera ricerca, attese del limitatore e tentativi ripetuti compresi
+     */
+    public CompletableFuture<Optional<SongMetadata>> getTrackInfoAsync(TrackName name, Duration timeout) {
+        String artist = name.getArtist();
+        String cleanedTitle = name.getSearchTitle();
+
+        String key = name.getKey();
+        LastFmCache.CachedResult cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.getMetadata());
+        }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                JsonObject jsonResponse = JsonParser.parseString(response.body()).getAsJsonObject();
-                JsonObject results = jsonResponse.getAsJsonObject("results");
-                
-                if (results != null && results.has("trackmatches")) {
-                    JsonObject trackmatches = results.getAsJsonObject("trackmatches");
-                    if (trackmatches.has("track") && trackmatches.getAsJsonArray("track").size() > 0) {
-                        JsonObject track = trackmatches.getAsJsonArray("track").get(0).getAsJsonObject();
-                        
-                        String trackName = track.get("name").getAsString();
-                        String artistName = track.get("artist").getAsString();
-                        
-                        // Se abbiamo un artista specifico, verifica che corrisponda
-                        if (!artist.isEmpty() && !artistName.toLowerCase().contains(artist.toLowerCase())) {
-                            return Optional.empty();
-                        }
-                        
-                        // Ottieni i dettagli completi della traccia
-                        return getTrackDetails(artistName, trackName);
+        AsyncLookup lookup = new AsyncLookup();
+        // Prima prova con i parametri esatti
+        searchTrack(lookup, artist, cleanedTitle)
+                .thenCompose(result -> {
+                    // Se non trova nulla, prova a cercare solo per titolo (se l'artista era indicato)
+                    if (result.isEmpty() && !artist.isEmpty()) {
+                        return searchTrack(lookup, "", cleanedTitle);
+                    }
+                    return CompletableFuture.completedFuture(result);
+                })
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        cache.put(key, result.orElse(null));
+                        lookup.result.complete(result);
+                    } else {
+                        lookup.result.completeExceptionally(unwrap(error));
                     }
-                }
+                });
+
+        lookup.result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        lookup.result.whenComplete((result, error) -> {
+            if (error != null) {
+                lookup.cancel();
             }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-        }
-        return Optional.empty();
+        });
+        return lookup.result;
+    }
+    
+    private CompletableFuture<Optional<SongMetadata>> searchTrack(AsyncLookup lookup, String artist, String title) {
+        String url = String.format("%s?method=track.search&api_key=%s&track=%s&format=json",
+                baseUrl, apiKey, encode(title));
+
+        return send(lookup, newRequest(url), 1)
+                .thenApply(response -> parse(response, LastFmResponseParser::parseFirstMatch))
+                .thenCompose(match -> {
+                    if (match == null) {
+                        return CompletableFuture.completedFuture(Optional.empty());
+                    }
+
+                    // Se abbiamo un artista specifico, verifica che corrisponda
+                    if (!artist.isEmpty() && !match.getArtist().toLowerCase().contains(artist.toLowerCase())) {
+                        return CompletableFuture.completedFuture(Optional.empty());
+                    }
+
+                    // Ottieni i dettagli completi della traccia
+                    return getTrackDetails(lookup, match.getArtist(), match.getName());
+                });
     }
     
-    private Optional<SongMetadata> getTrackDetails(String artist, String title) {
+    private CompletableFuture<Optional<SongMetadata>> getTrackDetails(AsyncLookup lookup, String artist, String title) {
+        String url = String.format("%s?method=track.getInfo&api_key=%s&artist=%s&track=%s&format=json",
+                baseUrl, apiKey, encode(artist), encode(title));
+
+        return send(lookup, newRequest(url), 1)
+                .thenApply(response -> Optional.ofNullable(parse(response, LastFmResponseParser::parseTrackInfo)));
+    }
+
+    private static HttpRequest newRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+    }
+
+    /**
+     * Verifica lo stato della risposta e ne legge il contenuto, già ricevuto per intero: la lettura
+     * non attende mai la rete e non occupa i thread dell'{@link HttpClient} durante il trasferimento.
+     */
+    private static <T> T parse(HttpResponse<byte[]> response, BodyParser<T> parser) {
         try {
-            String url = String.format("%s?method=track.getInfo&api_key=%s&artist=%s&track=%s&format=json",
-                    BASE_URL, API_KEY, encode(artist), encode(title));
+            if (response.statusCode() != 200) {
+                throw new IOException("Last.fm request failed with status " + response.statusCode());
+            }
+            try (Reader body = new InputStreamReader(new ByteArrayInputStream(response.body()), StandardCharsets.UTF_8)) {
+                return parser.parse(body);
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
+    /**
+     * Invia la richiesta rispettando il limitatore di frequenza e l'interruttore.
+     * Errori di rete e risposte 429 o 5xx vengono ripetuti fino a {@link #MAX_ATTEMPTS} volte;
+     * se anche l'ultimo tentativo fallisce viene restituita l'ultima risposta o l'ultimo errore.
+     * La risposta viene completata solo quando il contenuto è arrivato per intero, così un errore
+     * durante il trasferimento conta come errore di rete.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> send(AsyncLookup lookup, HttpRequest request, int attempt) {
+        if (!circuitBreaker.allowRequest()) {
+            metrics.recordRejected();
+            return CompletableFuture.failedFuture(new IOException("Last.fm lookups suspended after repeated failures"));
+        }
+
+        // Il gettone viene prenotato subito e la richiesta parte quando arriva il suo turno
+        metrics.requestQueued();
+        long waitNanos = rateLimiter.reserve();
+        CompletableFuture<Void> turn = CompletableFuture.runAsync(() -> { },
+                CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+        turn.whenComplete((ignored, error) -> metrics.requestDequeued());
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                JsonObject jsonResponse = JsonParser.parseString(response.body()).getAsJsonObject();
-                JsonObject track = jsonResponse.getAsJsonObject("track");
-
-                if (track != null) {
-                    String albumName = track.getAsJsonObject("album") != null ?
-                            track.getAsJsonObject("album").get("title").getAsString() : "Unknown Album";
-                    
-                    int duration = track.has("duration") ? 
-                            track.get("duration").getAsInt() : 0;
-
-                    return Optional.of(new SongMetadata(
-                            track.get("name").getAsString(),
-                            track.get("artist").getAsJsonObject().get("name").getAsString(),
-                            albumName,
-                            duration
-                    ));
-                }
+        return lookup.track(turn)
+                .thenCompose(ignored -> {
+                    long start = clock.getAsLong();
+                    return lookup.track(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()))
+                            .handle((response, error) -> onResponse(lookup, request, attempt, start, response, error));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> onResponse(AsyncLookup lookup, HttpRequest request, int attempt,
+                                                               long start, HttpResponse<byte[]> response,
+                                                               Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            if (!(cause instanceof IOException) || lookup.isCancelled()) {
+                return CompletableFuture.failedFuture(cause);
             }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+
+            metrics.recordNetworkError();
+            circuitBreaker.recordFailure();
+            if (attempt >= MAX_ATTEMPTS) return CompletableFuture.failedFuture(cause);
+            return retry(lookup, request, attempt, 0);
         }
-        return Optional.empty();
+
+        metrics.recordLatency(clock.getAsLong() - start);
+        metrics.recordStatus(response.statusCode());
+
+        if (!isRetryable(response.statusCode())) {
+            circuitBreaker.recordSuccess();
+            return CompletableFuture.completedFuture(response);
+        }
+
+        circuitBreaker.recordFailure();
+        if (attempt >= MAX_ATTEMPTS) return CompletableFuture.completedFuture(response);
+        return retry(lookup, request, attempt, retryAfterMillis(response));
     }
-    
-    private String cleanTitle(String title) {
-        // Rimuovi l'estensione del file
-        title = title.replaceFirst("[.][^.]+$", "");
-        
-        // Rimuovi caratteri speciali e parole comuni
-        title = title.replaceAll("(?i)\\(official.*?\\)", "")
-                    .replaceAll("(?i)\\[official.*?\\]", "")
-                    .replaceAll("(?i)\\(lyrics.*?\\)", "")
-                    .replaceAll("(?i)\\[lyrics.*?\\]", "")
-                    .replaceAll("(?i)\\(audio.*?\\)", "")
-                    .replaceAll("(?i)\\[audio.*?\\]", "")
-                    .replaceAll("(?i)\\(hd.*?\\)", "")
-                    .replaceAll("(?i)\\[hd.*?\\]", "")
-                    .trim();
-        
-        return title;
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
     }
-    
-    public static String[] parseFilename(String filename) {
-        String cleanName = filename.replaceFirst("[.][^.]+$", ""); // Rimuovi estensione
-        
-        for (Pattern pattern : FILENAME_PATTERNS) {
-            Matcher matcher = pattern.matcher(cleanName);
-            if (matcher.find()) {
-                String first = matcher.group(1).trim();
-                String second = matcher.groupCount() > 1 ? matcher.group(2).trim() : "";
-                
-                // Determina quale gruppo è artista e quale è titolo
-                if (second.isEmpty()) {
-                    return new String[]{"", first}; // Solo titolo
-                } else if (first.toLowerCase().contains("official") || first.toLowerCase().contains("video")) {
-                    return new String[]{"", second}; // Il secondo gruppo è il titolo
-                } else {
-                    return new String[]{first, second}; // Primo gruppo è artista, secondo è titolo
-                }
+
+    /**
+     * Ripete la richiesta dopo un'attesa: il tempo raddoppia a ogni tentativo e viene scelto a caso
+     * tra metà e il valore pieno, così le ricerche in parallelo non riprovano tutte nello stesso istante.
+     * Se il server indica quanto aspettare, non si riprova prima.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> retry(AsyncLookup lookup, HttpRequest request, int attempt,
+                                                          long retryAfterMillis) {
+        metrics.recordRetry();
+        long delay = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (attempt - 1));
+        long jittered = jitter.applyAsLong(delay);
+        long wait = Math.min(MAX_BACKOFF_MILLIS, Math.max(jittered, retryAfterMillis));
+
+        return lookup.track(CompletableFuture.runAsync(() -> { },
+                        CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS)))
+                .thenCompose(ignored -> send(lookup, request, attempt + 1));
+    }
+
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After").map(value -> {
+            try {
+                return Long.parseLong(value.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                return 0L;
             }
+        }).orElse(0L);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    @FunctionalInterface
+    private interface BodyParser<T> {
+        T parse(Reader body) throws IOException;
+    }
+
+    /**
+     * Stato di una ricerca asincrona: tiene traccia del passo in corso, così annullando il risultato
+     * si annulla anche la richiesta HTTP o l'attesa in corso e non ne partono altre.
+     */
+    private static final class AsyncLookup {
+        private final CompletableFuture<Optional<SongMetadata>> result = new CompletableFuture<>();
+        private volatile CompletableFuture<?> current;
+        private volatile boolean cancelled = false;
+
+        private <T> CompletableFuture<T> track(CompletableFuture<T> step) {
+            current = step;
+            if (cancelled) {
+                step.cancel(true);
+            }
+            return step;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            CompletableFuture<?> step = current;
+            if (step != null) {
+                step.cancel(true);
+            }
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
         }
-        
-        // Se nessun pattern corrisponde, restituisci il nome del file come titolo
-        return new String[]{"", cleanName};
     }
 
     private String encode(String value) {
@@ -0,0 +1,45 @@
+package ch.supsi.musicplayer.service;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Limitatore di frequenza a secchiello di gettoni: il secchiello si riempie a velocità costante
+ * fino alla sua capacità e ogni richiesta consuma un gettone, attendendo il proprio turno se non ce ne sono.
+ * La capacità consente brevi raffiche, la velocità di riempimento fissa la media nel tempo.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private final LongSupplier clock;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param clock orologio in nanosecondi, di norma {@link System#nanoTime()}
+     */
+    TokenBucket(int capacity, double tokensPerSecond, LongSupplier clock) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Prenota un gettone, anche se non è ancora disponibile: le prenotazioni in eccesso
+     * vengono servite in ordine man mano che il secchiello si riempie.
+     *
+     * @return i nanosecondi da attendere prima di usare il gettone prenotato, 0 se è già disponibile
+     */
+    synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
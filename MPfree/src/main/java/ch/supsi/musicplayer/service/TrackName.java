@@ -0,0 +1,120 @@
+package ch.supsi.musicplayer.service;
+
+import java.util.regex.Pattern;
+
+/**
+ * Artista e titolo ricavati dal nome di un file, insieme al titolo ripulito usato per le ricerche
+ * e alla chiave normalizzata della cache di Last.fm.
+ * Il nome viene esaminato una sola volta con una scansione dei caratteri; le diciture come
+ * "(Official Video)" o "[Lyrics]" vengono tolte con un'unica espressione compilata una volta sola.
+ */
+public final class TrackName {
+    // Diciture da togliere dal titolo prima della ricerca, tra parentesi tonde o quadre
+    private static final Pattern NOISE = Pattern.compile(
+            "(?i)\\((?:official|lyrics|audio|hd).*?\\)|\\[(?:official|lyrics|audio|hd).*?\\]");
+
+    private final String artist;
+    private final String title;
+    private final String searchTitle;
+    private final String key;
+
+    private TrackName(String artist, String title) {
+        this.artist = artist;
+        this.title = title;
+        this.searchTitle = cleanTitle(title);
+        this.key = LastFmCache.keyOf(artist, searchTitle);
+    }
+
+    /**
+     * Artista e titolo già noti; l'artista può essere vuoto.
+     */
+    public static TrackName of(String artist, String title) {
+        return new TrackName(artist, title);
+    }
+
+    /**
+     * Ricava artista e titolo da nomi di file comuni:
+     * "Artista - Titolo", "Titolo (Official Video)" e "Titolo [Official Video]".
+     * Se nessuna forma corrisponde il titolo è il nome del file senza estensione.
+     */
+    public static TrackName parse(String filename) {
+        String name = removeExtension(filename);
+
+        // "Artista - Titolo": il primo trattino preceduto da almeno un carattere e seguito da altro
+        int dash = name.indexOf('-', 1);
+        if (dash > 0 && dash < name.length() - 1) {
+            String first = name.substring(0, dash).trim();
+            String second = name.substring(dash + 1).trim();
+
+            if (second.isEmpty()) {
+                return new TrackName("", first); // Solo titolo
+            }
+            String lowerFirst = first.toLowerCase();
+            if (lowerFirst.contains("official") || lowerFirst.contains("video")) {
+                return new TrackName("", second); // Il secondo gruppo è il titolo
+            }
+            return new TrackName(first, second); // Primo gruppo è artista, secondo è titolo
+        }
+
+        // "Titolo (...)" oppure "Titolo [...]": il titolo è il testo prima della prima parentesi non vuota
+        int bracket = firstNonEmptyBracket(name, '(', ')');
+        if (bracket < 0) {
+            bracket = firstNonEmptyBracket(name, '[', ']');
+        }
+        if (bracket > 0) {
+            return new TrackName("", name.substring(0, bracket).trim());
+        }
+
+        return new TrackName("", name);
+    }
+
+    /**
+     * Toglie dal titolo l'estensione del file e le diciture come "(Official Video)" o "[HD]".
+     */
+    public static String cleanTitle(String title) {
+        return NOISE.matcher(removeExtension(title)).replaceAll("").trim();
+    }
+
+    private static String removeExtension(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && dot < filename.length() - 1 ? filename.substring(0, dot) : filename;
+    }
+
+    /**
+     * @return la posizione della prima parentesi aperta, non all'inizio del nome, che viene chiusa
+     *         dopo almeno un carattere; -1 se non ce ne sono
+     */
+    private static int firstNonEmptyBracket(String name, char open, char close) {
+        for (int start = name.indexOf(open, 1); start > 0; start = name.indexOf(open, start + 1)) {
+            int end = name.indexOf(close, start + 1);
+            if (end < 0) return -1;
+            if (end > start + 1) return start;
+        }
+        return -1;
+    }
+
+    /**
+     * @return l'artista ricavato dal nome del file, oppure una stringa vuota se non è indicato
+     */
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return il titolo senza estensione e diciture, usato per le ricerche su Last.fm
+     */
+    public String getSearchTitle() {
+        return searchTitle;
+    }
+
+    /**
+     * @return la chiave normalizzata di artista e titolo usata dalla cache di Last.fm
+     */
+    public String getKey() {
+        return key;
+    }
+}
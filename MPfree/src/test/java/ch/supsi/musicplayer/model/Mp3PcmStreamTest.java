@@ -0,0 +1,223 @@
+package ch.supsi.musicplayer.model;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.Obuffer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica il numero di campioni restituiti da {@link Mp3PcmStream} in modalità senza pause.
+ * I file di prova sono costruiti mettendo un frame Info con estensione LAME davanti ai primi frame
+ * di audio/test.mp3, così delay e padding sono noti esattamente. Con gli stessi file si verifica che
+ * il frame dell'intestazione non venga contato come audio.
+ */
+class Mp3PcmStreamTest {
+    private static final int SAMPLES_PER_FRAME = 1152;
+    private static final int LAME_TAG_OFFSET = 120;
+
+    private static List<byte[]> frames;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void readFrames() throws IOException {
+        byte[] data;
+        try (InputStream in = Mp3PcmStreamTest.class.getResourceAsStream("/audio/test.mp3")) {
+            assertNotNull(in, "audio/test.mp3 not found");
+            data = in.readAllBytes();
+        }
+
+        frames = new ArrayList<>();
+        int offset = 0;
+        while (offset + 4 <= data.length) {
+            Mp3FrameHeader frame = Mp3FrameHeader.parse(ByteBuffer.wrap(data, offset, 4).getInt());
+            if (frame == null || offset + frame.getFrameLength() > data.length) break;
+            byte[] bytes = new byte[frame.getFrameLength()];
+            System.arraycopy(data, offset, bytes, 0, bytes.length);
+            frames.add(bytes);
+            offset += bytes.length;
+        }
+        assertTrue(frames.size() > 100, "test.mp3 should contain at least 100 frames");
+    }
+
+    @Test
+    void gaplessTracksEmitOnlyAudibleSamplesAcrossTrackBoundary() throws IOException {
+        File first = writeTrack("first.mp3", 40, 576, 1000);
+        File second = writeTrack("second.mp3", 25, 1105, 1731);
+
+        long emitted = readAll(open(first, null)) + readAll(open(second, null));
+
+        long expected = (40L * SAMPLES_PER_FRAME - 576 - 1000) + (25L * SAMPLES_PER_FRAME - 1105 - 1731);
+        assertEquals(expected, emitted);
+    }
+
+    @Test
+    void gaplessTrackWithSeekIndexEmitsSameSamples() throws IOException {
+        File file = writeTrack("indexed.mp3", 40, 576, 1000);
+        Mp3SeekIndex index = Mp3SeekIndex.build(file);
+
+        assertEquals(40L * SAMPLES_PER_FRAME, index.getTotalSamples());
+        assertEquals(Mp3Info.read(file).getDurationSeconds(), index.getDurationSeconds(), 1e-9);
+
+        Mp3PcmStream stream = open(file, index);
+        stream.setTotalSamples(index.getTotalSamples());
+        assertEquals(40L * SAMPLES_PER_FRAME - 576 - 1000, readAll(stream));
+    }
+
+    @Test
+    void trackWithoutKnownLengthIsReadToTheEnd() throws IOException {
+        File file = writeTrack("plain.mp3", 40, 576, 1000);
+
+        Mp3PcmStream stream = Mp3PcmStream.open(file, null, 0);
+        assertEquals(-1, stream.getRemainingSamples());
+        assertEquals(40L * SAMPLES_PER_FRAME, readAll(stream));
+    }
+
+    @Test
+    void xingFrameWithoutFrameCountIsLeftOutOfTheFullScan() throws IOException {
+        File file = writeTrack("xing.mp3", "Xing", 0, 40, 0, 0);
+
+        // Senza numero di frame nell'intestazione Mp3Info scandisce il file e ne conserva l'indice
+        Mp3Info info = Mp3Info.read(file);
+        assertNotNull(info.getSeekIndex());
+        assertEquals(40, info.getFrameCount());
+        assertEquals(40.0 * SAMPLES_PER_FRAME / info.getSampleRate(), info.getDurationSeconds(), 1e-9);
+    }
+
+    @Test
+    void undecodableFrameIsReplacedBySilenceOfSameLength() throws IOException {
+        File file = writeTrack("undecodable.mp3", 40, 576, 1000);
+        Decoder decoder = new Decoder() {
+            private int frame = 0;
+
+            @Override
+            public Obuffer decodeFrame(Header header, Bitstream stream) throws DecoderException {
+                if (frame++ == 10) {
+                    throw new DecoderException("corrupted frame", null);
+                }
+                return super.decodeFrame(header, stream);
+            }
+        };
+
+        Mp3PcmStream stream = Mp3PcmStream.open(file, null, 0, Mp3VbrHeader.read(file), decoder);
+        int channels = stream.getChannels();
+        short[] samples = readSamples(stream);
+
+        assertEquals((40L * SAMPLES_PER_FRAME - 576 - 1000) * channels, samples.length);
+        int start = (10 * SAMPLES_PER_FRAME - 576) * channels;
+        for (int i = start; i < start + SAMPLES_PER_FRAME * channels; i++) {
+            assertEquals(0, samples[i], "sample " + i + " of the undecodable frame");
+        }
+    }
+
+    @Test
+    void corruptedFrameKeepsTrackLength() throws IOException {
+        File file = writeTrack("corrupted.mp3", 40, 576, 1000);
+        byte[] data = Files.readAllBytes(file.toPath());
+        int offset = frames.get(0).length;
+        for (int i = 0; i < 10; i++) {
+            offset += frames.get(i).length;
+        }
+        Arrays.fill(data, offset + 4, offset + frames.get(10).length, (byte) 0xFF);
+        Files.write(file.toPath(), data);
+
+        assertEquals(40L * SAMPLES_PER_FRAME - 576 - 1000, readAll(open(file, null)));
+    }
+
+    private static Mp3PcmStream open(File file, Mp3SeekIndex index) throws IOException {
+        Mp3VbrHeader header = Mp3VbrHeader.read(file);
+        assertNotNull(header);
+        assertTrue(header.hasGaplessInfo());
+        return Mp3PcmStream.open(file, index, 0, header);
+    }
+
+    private static long readAll(Mp3PcmStream stream) throws IOException {
+        try (stream) {
+            short[] buffer = new short[4096];
+            long samples = 0;
+            int count;
+            while ((count = stream.read(buffer, 0, buffer.length)) >= 0) {
+                samples += count / stream.getChannels();
+            }
+            return samples;
+        }
+    }
+
+    private static short[] readSamples(Mp3PcmStream stream) throws IOException {
+        try (stream) {
+            short[] samples = new short[0];
+            short[] buffer = new short[4096];
+            int length = 0;
+            int count;
+            while ((count = stream.read(buffer, 0, buffer.length)) >= 0) {
+                samples = Arrays.copyOf(samples, length + count);
+                System.arraycopy(buffer, 0, samples, length, count);
+                length += count;
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Scrive un file con un frame Info, che dichiara il numero di frame e l'estensione LAME
+     * con delay e padding, seguito dai primi {@code frameCount} frame di test.mp3.
+     */
+    private File writeTrack(String name, int frameCount, int delay, int padding) throws IOException {
+        return writeTrack(name, "Info", 0x1, frameCount, delay, padding);
+    }
+
+    /**
+     * Come {@link #writeTrack(String, int, int, int)}, con l'etichetta e i flag dell'intestazione indicati:
+     * il numero di frame viene scritto solo se il flag 0x1 è presente.
+     */
+    private File writeTrack(String name, String tagName, int flags, int frameCount, int delay, int padding)
+            throws IOException {
+        byte[] first = frames.get(0);
+        byte[] info = new byte[first.length];
+        System.arraycopy(first, 0, info, 0, 4);
+
+        int sideInfo = (first[3] & 0xC0) == 0xC0 ? 17 : 32;
+        int offset = 4 + sideInfo;
+        ByteBuffer tag = ByteBuffer.wrap(info);
+        System.arraycopy(tagName.getBytes(), 0, info, offset, 4);
+        tag.putInt(offset + 4, flags);
+        if ((flags & 0x1) != 0) {
+            tag.putInt(offset + 8, frameCount);
+        }
+
+        int lame = offset + LAME_TAG_OFFSET;
+        byte[] encoder = "LAME3.100".getBytes();
+        System.arraycopy(encoder, 0, info, lame, encoder.length);
+        info[lame + 21] = (byte) (delay >>> 4);
+        info[lame + 22] = (byte) (((delay & 0x0F) << 4) | (padding >>> 8));
+        info[lame + 23] = (byte) padding;
+
+        Path path = directory.resolve(name);
+        try (var out = Files.newOutputStream(path)) {
+            out.write(info);
+            for (int i = 0; i < frameCount; i++) {
+                out.write(frames.get(i));
+            }
+        }
+        return path.toFile();
+    }
+}
@@ -0,0 +1,98 @@
+package ch.supsi.musicplayer.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Confronto tra il controllo dei brani già presenti tramite l'indice della {@link Playlist} e la scansione
+ * lineare della lista usata in precedenza da addSong, su playlist di dimensioni crescenti.
+ * Misura sia il singolo controllo, con metà dei file presenti e metà no, sia l'importazione di una cartella
+ * in cui ogni brano viene confrontato con quelli già aggiunti.
+ * I file non devono esistere: la durata dei brani resta sconosciuta e non influisce sulle misure.
+ * Non è un test: va eseguito con il metodo main, ad esempio dall'IDE.
+ */
+public final class PlaylistMembershipBenchmark {
+    private static final int[] SIZES = {1_000, 5_000, 20_000};
+    private static final int LOOKUPS = 10_000;
+    private static final int ROUNDS = 3;
+
+    private static volatile Object sink;
+
+    private PlaylistMembershipBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        for (int size : SIZES) {
+            List<SongModel> songs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                songs.add(new SongModel(new File("/music/Artist " + i + " - Title " + i + ".mp3"), false));
+            }
+            File[] lookups = new File[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                // Metà dei file fanno parte della playlist, metà no
+                int n = (int) ((long) i * size / LOOKUPS);
+                lookups[i] = new File(i % 2 == 0 ? "/music/Artist " + n + " - Title " + n + ".mp3" : "/other/Missing " + i + ".mp3");
+            }
+
+            double indexedImport = Double.MAX_VALUE;
+            double linearImport = Double.MAX_VALUE;
+            double indexedLookup = Double.MAX_VALUE;
+            double linearLookup = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                Playlist playlist = new Playlist(new File("/benchmark/playlist"), songs);
+                indexedImport = Math.min(indexedImport, (System.nanoTime() - start) / 1e6);
+
+                start = System.nanoTime();
+                List<SongModel> list = linearImport(songs);
+                linearImport = Math.min(linearImport, (System.nanoTime() - start) / 1e6);
+
+                start = System.nanoTime();
+                int found = 0;
+                for (File file : lookups) {
+                    if (playlist.containsSong(file)) found++;
+                }
+                indexedLookup = Math.min(indexedLookup, (System.nanoTime() - start) / (double) LOOKUPS);
+
+                start = System.nanoTime();
+                int linearFound = 0;
+                for (File file : lookups) {
+                    if (linearContains(list, file)) linearFound++;
+                }
+                linearLookup = Math.min(linearLookup, (System.nanoTime() - start) / (double) LOOKUPS);
+
+                if (found != linearFound || playlist.getSongs().size() != list.size()) {
+                    throw new IllegalStateException("Indexed and linear results differ");
+                }
+                sink = playlist;
+            }
+
+            System.out.printf("%6d songs: import %9.2f ms indexed %9.2f ms linear, lookup %9.1f ns indexed %11.1f ns linear%n",
+                    size, indexedImport, linearImport, indexedLookup, linearLookup);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Importazione come avveniva prima: ogni brano confrontato con tutti quelli già nella lista.
+     */
+    private static List<SongModel> linearImport(List<SongModel> songs) {
+        List<SongModel> list = new ArrayList<>();
+        for (SongModel song : songs) {
+            if (!linearContains(list, song.getFile())) {
+                list.add(song);
+            }
+        }
+        return list;
+    }
+
+    private static boolean linearContains(List<SongModel> list, File file) {
+        for (SongModel existing : list) {
+            if (existing.getFile().getName().equals(file.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
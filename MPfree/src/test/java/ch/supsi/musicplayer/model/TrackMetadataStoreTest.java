@@ -0,0 +1,92 @@
+package ch.supsi.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica che le voci del {@link TrackMetadataStore}, scritte sul file da un thread separato,
+ * siano subito disponibili, sopravvivano alla riapertura e che il log venga compattato anche
+ * mentre l'archivio è in uso, senza perdere gli indici di seek.
+ */
+class TrackMetadataStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void seekIndexIsReadableBeforeAndAfterReopen() throws IOException {
+        File file = copyTestTrack();
+        Mp3SeekIndex index = Mp3SeekIndex.build(file);
+        Path storePath = directory.resolve("store.db");
+
+        TrackMetadataStore store = new TrackMetadataStore(storePath);
+        store.putSeekIndex(file, file.length(), file.lastModified(), index);
+        store.putArtistAndAlbum(file, "Artist", "Album");
+        assertEquals(index.getFrameCount(), readFrameCount(store, file));
+        store.close();
+
+        TrackMetadataStore reopened = new TrackMetadataStore(storePath);
+        TrackMetadata metadata = reopened.get(file);
+        assertNotNull(metadata);
+        assertEquals("Artist", metadata.getArtist());
+        assertEquals(index.getFrameCount(), metadata.getFrameCount());
+        assertEquals(index.getFrameCount(), readFrameCount(reopened, file));
+        reopened.close();
+    }
+
+    @Test
+    void logIsCompactedWhileStoreIsOpen() throws IOException {
+        File file = copyTestTrack();
+        Mp3SeekIndex index = Mp3SeekIndex.build(file);
+        Path storePath = directory.resolve("store.db");
+
+        TrackMetadataStore store = new TrackMetadataStore(storePath);
+        store.putSeekIndex(file, file.length(), file.lastModified(), index);
+        store.putArtistAndAlbum(file, "Artist 000", "Album");
+        store.close();
+        long initialSize = Files.size(storePath);
+
+        store = new TrackMetadataStore(storePath);
+        store.putArtistAndAlbum(file, "Artist 001", "Album");
+        store.close();
+        long recordLength = Files.size(storePath) - initialSize;
+
+        store = new TrackMetadataStore(storePath);
+        for (int i = 2; i < 600; i++) {
+            store.putArtistAndAlbum(file, String.format("Artist %03d", i), "Album");
+        }
+        store.close();
+
+        assertTrue(Files.size(storePath) < initialSize + 300 * recordLength,
+                "store should have been compacted, size " + Files.size(storePath));
+
+        TrackMetadataStore reopened = new TrackMetadataStore(storePath);
+        assertEquals("Artist 599", reopened.get(file).getArtist());
+        assertEquals(index.getFrameCount(), readFrameCount(reopened, file));
+        reopened.close();
+    }
+
+    private static int readFrameCount(TrackMetadataStore store, File file) {
+        Mp3SeekIndex index = store.readSeekIndex(file);
+        assertNotNull(index, "seek index of " + file.getName());
+        return index.getFrameCount();
+    }
+
+    private File copyTestTrack() throws IOException {
+        Path track = directory.resolve("track.mp3");
+        try (InputStream in = TrackMetadataStoreTest.class.getResourceAsStream("/audio/test.mp3")) {
+            assertNotNull(in, "audio/test.mp3 not found");
+            Files.copy(in, track);
+        }
+        return track.toFile();
+    }
+}
@@ -0,0 +1,218 @@
+package ch.supsi.musicplayer.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica scadenza, scarto delle voci meno usate e persistenza della {@link LastFmCache},
+ * con un orologio controllato dal test e il file in una cartella temporanea.
+ */
+class LastFmCacheTest {
+    private static final LastFmService.SongMetadata SONG = new LastFmService.SongMetadata("Song", "Band", "Record", 215);
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong millis = new AtomicLong(1_000_000_000L);
+    private final List<LastFmCache> opened = new ArrayList<>();
+    private HttpServer server;
+
+    @AfterEach
+    void close() {
+        opened.forEach(LastFmCache::shutdown);
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void secondLaunchMakesNoRequests() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/2.0/", exchange -> {
+            requests.incrementAndGet();
+            String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8);
+            String body;
+            if (query.contains("track=Missing")) {
+                body = "{\"results\":{\"trackmatches\":{\"track\":[]}}}";
+            } else if (query.contains("method=track.search")) {
+                body = "{\"results\":{\"trackmatches\":{\"track\":[{\"name\":\"Song\",\"artist\":\"Band\"}]}}}";
+            } else {
+                body = "{\"track\":{\"name\":\"Song\",\"artist\":{\"name\":\"Band\"},"
+                        + "\"album\":{\"title\":\"Record\"},\"duration\":\"215000\"}}";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+
+        List<TrackName> library = List.of(TrackName.parse("Band - Song.mp3"), TrackName.parse("Band - Song (Live).mp3"),
+                TrackName.parse("Missing one.mp3"), TrackName.parse("Missing two.mp3"));
+
+        LastFmCache first = open();
+        List<Optional<LastFmService.SongMetadata>> resolved = lookupAll(newService(first), library);
+        assertTrue(requests.get() > 0);
+        first.shutdown();
+
+        int requestsBefore = requests.get();
+        LastFmCache second = open();
+        assertEquals(library.size(), second.size());
+        List<Optional<LastFmService.SongMetadata>> cached = lookupAll(newService(second), library);
+
+        assertEquals(requestsBefore, requests.get(), "second launch must not contact the server");
+        for (int i = 0; i < library.size(); i++) {
+            assertEquals(resolved.get(i).map(LastFmService.SongMetadata::getAlbum),
+                    cached.get(i).map(LastFmService.SongMetadata::getAlbum));
+        }
+        assertTrue(cached.get(0).isPresent());
+        assertFalse(cached.get(2).isPresent());
+    }
+
+    @Test
+    void foundResultsExpireAfterTimeToLive() {
+        LastFmCache cache = open();
+        cache.put("found", SONG);
+
+        millis.addAndGet(TimeUnit.DAYS.toMillis(LastFmCache.DEFAULT_TTL_DAYS) - 1);
+        assertNotNull(cache.get("found"));
+
+        millis.addAndGet(2);
+        assertNull(cache.get("found"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void missingResultsExpireSooner() {
+        LastFmCache cache = open();
+        cache.put("found", SONG);
+        cache.put("missing", null);
+
+        millis.addAndGet(TimeUnit.DAYS.toMillis(3) + 1);
+
+        assertNull(cache.get("missing"));
+        assertNotNull(cache.get("found"));
+        assertTrue(cache.get("found").isFound());
+    }
+
+    @Test
+    void expiredEntriesAreDroppedOnLoad() {
+        LastFmCache cache = open();
+        cache.put("found", SONG);
+        cache.put("missing", null);
+        cache.shutdown();
+
+        millis.addAndGet(TimeUnit.DAYS.toMillis(4));
+        LastFmCache reopened = open();
+
+        assertEquals(1, reopened.size());
+        assertNotNull(reopened.get("found"));
+        assertNull(reopened.get("missing"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        LastFmCache cache = open();
+        cache.setMaxEntries(3);
+        cache.put("a", SONG);
+        cache.put("b", SONG);
+        cache.put("c", SONG);
+
+        // Usare "a" la rende la più recente: viene scartata "b"
+        assertNotNull(cache.get("a"));
+        cache.put("d", SONG);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+
+        // Riducendo il limite vengono scartate subito le meno usate
+        cache.setMaxEntries(1);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    void truncatedTailIsDiscardedOnLoad() throws IOException {
+        LastFmCache cache = open();
+        cache.put("a", SONG);
+        cache.put("b", null);
+        cache.put("c", SONG);
+        cache.shutdown();
+        long validLength = Files.size(cachePath());
+
+        // Un record interrotto a metà, come dopo una chiusura improvvisa
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(cachePath(), StandardOpenOption.APPEND))) {
+            out.writeInt(100);
+            out.write(new byte[10]);
+        }
+
+        LastFmCache reopened = open();
+        assertEquals(3, reopened.size());
+        assertEquals(validLength, Files.size(cachePath()));
+
+        reopened.put("d", SONG);
+        reopened.shutdown();
+        LastFmCache third = open();
+        assertEquals(4, third.size());
+        assertNotNull(third.get("d"));
+    }
+
+    private LastFmCache open() {
+        LastFmCache cache = new LastFmCache(cachePath(), millis::get);
+        opened.add(cache);
+        return cache;
+    }
+
+    private Path cachePath() {
+        return directory.resolve("lastfm-cache.db");
+    }
+
+    private LastFmService newService(LastFmCache cache) {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/2.0/");
+        return new LastFmService(baseUri, client, "test-key", System::nanoTime, delay -> 0, cache);
+    }
+
+    private static List<Optional<LastFmService.SongMetadata>> lookupAll(LastFmService service, List<TrackName> names)
+            throws Exception {
+        List<Optional<LastFmService.SongMetadata>> results = new ArrayList<>();
+        for (TrackName name : names) {
+            results.add(service.getTrackInfoAsync(name, TIMEOUT).get());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,135 @@
+package ch.supsi.musicplayer.service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Confronto tra la lettura in streaming di {@link LastFmResponseParser} e la lettura ad albero con
+ * {@link JsonParser} usata in precedenza, su risposte di track.search con 30 risultati e di track.getInfo
+ * con wiki e tag, come quelle restituite da Last.fm.
+ * Per ogni variante riporta tempo medio e byte allocati per risposta, partendo dai byte del corpo HTTP.
+ * Non è un test: va eseguito con il metodo main, ad esempio dall'IDE.
+ */
+public final class LastFmResponseParserBenchmark {
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 50_000;
+    private static final int SEARCH_RESULTS = 30;
+
+    private static volatile Object sink;
+
+    private LastFmResponseParserBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] search = searchResponse().getBytes(StandardCharsets.UTF_8);
+        byte[] info = trackInfoResponse().getBytes(StandardCharsets.UTF_8);
+        System.out.printf("track.search: %d bytes, track.getInfo: %d bytes%n", search.length, info.length);
+
+        run("track.search  tree     ", () -> sink = treeFirstMatch(search));
+        run("track.search  streaming", () -> sink = LastFmResponseParser.parseFirstMatch(reader(search)));
+        run("track.getInfo tree     ", () -> sink = treeTrackInfo(info));
+        run("track.getInfo streaming", () -> sink = LastFmResponseParser.parseTrackInfo(reader(info)));
+    }
+
+    private interface Parse {
+        void run() throws IOException;
+    }
+
+    private static void run(String name, Parse parse) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            parse.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%s %8.2f us/op %10d B/op%n", name,
+                elapsed / 1000.0 / MEASURED_ITERATIONS, allocated / MEASURED_ITERATIONS);
+    }
+
+    private static Reader reader(byte[] body) {
+        return new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lettura della ricerca come avveniva prima: corpo in una stringa e albero completo.
+     */
+    private static String[] treeFirstMatch(byte[] body) {
+        JsonObject response = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject track = response.getAsJsonObject("results").getAsJsonObject("trackmatches")
+                .getAsJsonArray("track").get(0).getAsJsonObject();
+        return new String[] {track.get("name").getAsString(), track.get("artist").getAsString()};
+    }
+
+    private static LastFmService.SongMetadata treeTrackInfo(byte[] body) {
+        JsonObject response = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject track = response.getAsJsonObject("track");
+        return new LastFmService.SongMetadata(track.get("name").getAsString(),
+                track.getAsJsonObject("artist").get("name").getAsString(),
+                track.getAsJsonObject("album").get("title").getAsString(),
+                track.get("duration").getAsInt());
+    }
+
+    private static String searchResponse() {
+        StringBuilder json = new StringBuilder("{\"results\":{\"opensearch:Query\":{\"#text\":\"\",\"role\":\"request\","
+                + "\"startPage\":\"1\"},\"opensearch:totalResults\":\"5123\",\"opensearch:startIndex\":\"0\","
+                + "\"opensearch:itemsPerPage\":\"30\",\"trackmatches\":{\"track\":[");
+        for (int i = 0; i < SEARCH_RESULTS; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"Song Title ").append(i).append("\",\"artist\":\"Artist Name ").append(i)
+                    .append("\",\"url\":\"https://www.last.fm/music/Artist+Name+").append(i)
+                    .append("/_/Song+Title\",\"streamable\":\"0\",\"listeners\":\"").append(100000 + i)
+                    .append("\",").append(images()).append(",\"mbid\":\"0c3f2b5e-7a8b-4c1d-9e0f-").append(100000000000L + i)
+                    .append("\"}");
+        }
+        return json.append("]},\"@attr\":{\"for\":\"song title\"}}}").toString();
+    }
+
+    private static String trackInfoResponse() {
+        StringBuilder wiki = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            wiki.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor. ");
+        }
+        StringBuilder tags = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            if (i > 0) tags.append(',');
+            tags.append("{\"name\":\"tag").append(i).append("\",\"url\":\"https://www.last.fm/tag/tag").append(i)
+                    .append("\"}");
+        }
+        return "{\"track\":{\"name\":\"Song Title\",\"mbid\":\"0c3f2b5e-7a8b-4c1d-9e0f-123456789012\","
+                + "\"url\":\"https://www.last.fm/music/Artist+Name/_/Song+Title\",\"duration\":\"245000\","
+                + "\"streamable\":{\"#text\":\"0\",\"fulltrack\":\"0\"},\"listeners\":\"812345\","
+                + "\"playcount\":\"6543210\",\"artist\":{\"name\":\"Artist Name\","
+                + "\"mbid\":\"9c3f2b5e-7a8b-4c1d-9e0f-123456789012\",\"url\":\"https://www.last.fm/music/Artist+Name\"},"
+                + "\"album\":{\"artist\":\"Artist Name\",\"title\":\"Album Title\","
+                + "\"mbid\":\"1c3f2b5e-7a8b-4c1d-9e0f-123456789012\",\"url\":\"https://www.last.fm/music/Artist+Name/Album\","
+                + images() + ",\"@attr\":{\"position\":\"3\"}},\"toptags\":{\"tag\":[" + tags + "]},"
+                + "\"wiki\":{\"published\":\"01 Jan 2010, 00:00\",\"summary\":\"" + wiki + "\",\"content\":\""
+                + wiki + wiki + "\"}}}";
+    }
+
+    private static String images() {
+        StringBuilder json = new StringBuilder("\"image\":[");
+        String[] sizes = {"small", "medium", "large", "extralarge"};
+        for (int i = 0; i < sizes.length; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"#text\":\"https://lastfm.freetls.fastly.net/i/u/34s/2a96cbd8b46e442fc41c2b86b821562f.png\","
+                    + "\"size\":\"").append(sizes[i]).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,258 @@
+package ch.supsi.musicplayer.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica limitatore, tentativi ripetuti e interruttore di {@link LastFmService} contro un server HTTP locale.
+ * Il server risponde con le risposte accodate dal test e, finite quelle, con la risposta predefinita;
+ * l'orologio dell'interruttore e l'attesa tra i tentativi sono controllati dal test.
+ */
+class LastFmServiceTest {
+    private static final String NO_MATCH = "{\"results\":{\"trackmatches\":{\"track\":[]}}}";
+    private static final String MATCH = "{\"results\":{\"trackmatches\":{\"track\":[{\"name\":\"Song\",\"artist\":\"Band\"}]}}}";
+    private static final String INFO = "{\"track\":{\"name\":\"Song\",\"artist\":{\"name\":\"Band\"},"
+            + "\"album\":{\"title\":\"Record\"},\"duration\":\"215000\"}}";
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    private HttpServer server;
+    private final ConcurrentLinkedQueue<StubResponse> scripted = new ConcurrentLinkedQueue<>();
+    private volatile StubResponse fallback = StubResponse.ok(NO_MATCH);
+    private final List<Long> arrivals = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong nanos = new AtomicLong();
+    private final List<Long> backoffs = Collections.synchronizedList(new ArrayList<>());
+    private static final AtomicInteger titles = new AtomicInteger();
+    private final List<LastFmCache> caches = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/2.0/", exchange -> {
+            arrivals.add(System.nanoTime());
+            StubResponse response = scripted.poll();
+            (response != null ? response : fallback).send(exchange);
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        caches.forEach(LastFmCache::shutdown);
+    }
+
+    @Test
+    void throttledResponseWaitsForRetryAfter() throws Exception {
+        scripted.add(StubResponse.ok(NO_MATCH).withStatus(429).withHeader("Retry-After", "1"));
+        LastFmService service = newService(nanos::get);
+
+        assertEquals(Optional.empty(), lookup(service).get());
+
+        assertEquals(2, arrivals.size());
+        // Senza l'intestazione l'attesa sarebbe stata nulla
+        assertTrue(millisBetween(0, 1) >= 950, "retried after " + millisBetween(0, 1) + " ms");
+        assertEquals(1, service.getMetrics().getThrottledCount());
+        assertEquals(1, service.getMetrics().getRetryCount());
+    }
+
+    @Test
+    void serverErrorIsRetried() throws Exception {
+        scripted.add(StubResponse.ok("").withStatus(503));
+        scripted.add(StubResponse.ok(MATCH));
+        scripted.add(StubResponse.ok(INFO));
+        LastFmService service = newService(nanos::get);
+
+        LastFmService.SongMetadata metadata = lookup(service).get().orElseThrow();
+
+        assertEquals("Record", metadata.getAlbum());
+        assertEquals(3, arrivals.size());
+        assertEquals(1, service.getMetrics().getServerErrorCount());
+        assertEquals(List.of(500L), backoffs);
+    }
+
+    @Test
+    void serverErrorsGiveUpAfterLastAttempt() {
+        fallback = StubResponse.ok("").withStatus(500);
+        LastFmService service = newService(nanos::get);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> lookup(service).get());
+
+        assertInstanceOf(IOException.class, error.getCause());
+        assertEquals(4, arrivals.size());
+        // L'attesa piena raddoppia a ogni tentativo
+        assertEquals(List.of(500L, 1000L, 2000L), backoffs);
+        assertEquals(4, service.getMetrics().getServerErrorCount());
+        assertEquals(3, service.getMetrics().getRetryCount());
+    }
+
+    @Test
+    void networkErrorIsRetried() throws Exception {
+        scripted.add(StubResponse.truncated());
+        LastFmService service = newService(nanos::get);
+
+        assertEquals(Optional.empty(), lookup(service).get());
+
+        assertEquals(2, arrivals.size());
+        assertEquals(1, service.getMetrics().getNetworkErrorCount());
+        assertEquals(1, service.getMetrics().getRetryCount());
+    }
+
+    @Test
+    void circuitBreakerOpensAfterFiveFailuresAndClosesAfterProbe() throws Exception {
+        fallback = StubResponse.ok("").withStatus(500);
+        LastFmService service = newService(nanos::get);
+
+        // Quattro tentativi falliti, poi il quinto errore apre l'interruttore e il tentativo successivo è rifiutato
+        assertThrows(ExecutionException.class, () -> lookup(service).get());
+        assertThrows(ExecutionException.class, () -> lookup(service).get());
+        assertEquals(5, arrivals.size());
+
+        // Interruttore aperto: nessuna richiesta raggiunge il server
+        assertThrows(ExecutionException.class, () -> lookup(service).get());
+        assertEquals(5, arrivals.size());
+        assertTrue(service.getMetrics().getRejectedCount() >= 2);
+
+        // Trascorsa la pausa passa una richiesta di prova, che richiude l'interruttore
+        fallback = StubResponse.ok(NO_MATCH);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertEquals(Optional.empty(), lookup(service).get());
+        assertEquals(6, arrivals.size());
+        assertEquals(Optional.empty(), lookup(service).get());
+        assertEquals(7, arrivals.size());
+    }
+
+    @Test
+    void tokenBucketPacesRequestsAfterBurst() throws Exception {
+        LastFmService service = newService(System::nanoTime);
+
+        List<CompletableFuture<Optional<LastFmService.SongMetadata>>> lookups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(lookup(service));
+        }
+        for (CompletableFuture<Optional<LastFmService.SongMetadata>> lookup : lookups) {
+            assertFalse(lookup.get().isPresent());
+        }
+
+        // Cinque richieste subito, poi una ogni 200 ms
+        assertEquals(8, arrivals.size());
+        List<Long> sorted = new ArrayList<>(arrivals);
+        Collections.sort(sorted);
+        arrivals.clear();
+        arrivals.addAll(sorted);
+        for (int i = 5; i < 8; i++) {
+            long expected = (i - 4) * 200L;
+            assertTrue(millisBetween(0, i) >= expected - 50, "request " + i + " after " + millisBetween(0, i) + " ms");
+        }
+    }
+
+    private LastFmService newService(LongSupplier clock) {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI baseUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/2.0/");
+        LastFmCache cache = new LastFmCache(directory.resolve("lastfm-cache-" + caches.size() + ".db"),
+                System::currentTimeMillis);
+        caches.add(cache);
+        return new LastFmService(baseUri, client, "test-key", clock, delay -> {
+            backoffs.add(delay);
+            return 0;
+        }, cache);
+    }
+
+    /**
+     * Ricerca di un titolo mai cercato prima, senza artista: una sola richiesta se non ci sono risultati.
+     */
+    private static CompletableFuture<Optional<LastFmService.SongMetadata>> lookup(LastFmService service) {
+        return service.getTrackInfoAsync(TrackName.of("", "Stub title " + titles.incrementAndGet()), TIMEOUT);
+    }
+
+    private long millisBetween(int first, int second) {
+        return TimeUnit.NANOSECONDS.toMillis(arrivals.get(second) - arrivals.get(first));
+    }
+
+    private static final class StubResponse {
+        private final int status;
+        private final String body;
+        private final String header;
+        private final String headerValue;
+        private final boolean truncated;
+
+        private StubResponse(int status, String body, String header, String headerValue, boolean truncated) {
+            this.status = status;
+            this.body = body;
+            this.header = header;
+            this.headerValue = headerValue;
+            this.truncated = truncated;
+        }
+
+        static StubResponse ok(String body) {
+            return new StubResponse(200, body, null, null, false);
+        }
+
+        /**
+         * Risposta che dichiara più byte di quelli inviati e chiude la connessione a metà.
+         */
+        static StubResponse truncated() {
+            return new StubResponse(200, NO_MATCH, null, null, true);
+        }
+
+        StubResponse withStatus(int status) {
+            return new StubResponse(status, body, header, headerValue, truncated);
+        }
+
+        StubResponse withHeader(String name, String value) {
+            return new StubResponse(status, body, name, value, truncated);
+        }
+
+        void send(HttpExchange exchange) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            if (header != null) {
+                exchange.getResponseHeaders().add(header, headerValue);
+            }
+            if (truncated) {
+                exchange.sendResponseHeaders(status, bytes.length * 2L);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                // Chiuso prima della fine del contenuto dichiarato: il server interrompe la connessione
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
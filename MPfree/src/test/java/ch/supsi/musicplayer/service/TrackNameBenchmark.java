@@ -0,0 +1,110 @@
+package ch.supsi.musicplayer.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Confronto tra {@link TrackName#parse} e le espressioni regolari usate in precedenza da LastFmService
+ * (parseFilename seguito da cleanTitle, riportate in {@link TrackNameTest}) su un elenco di nomi di file
+ * nelle forme che si trovano nelle librerie reali: numeri di traccia, "feat.", diciture tra parentesi,
+ * trattini multipli, caratteri non latini e nomi senza artista.
+ * Per ogni variante riporta tempo medio e byte allocati per nome, chiave della cache compresa.
+ * Non è un test: va eseguito con il metodo main, ad esempio dall'IDE.
+ */
+public final class TrackNameBenchmark {
+    private static final int CORPUS_SIZE = 5_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+
+    private static final String[] ARTISTS = {
+        "Radiohead", "The Beatles", "AC/DC", "Beyoncé", "Daft Punk", "Sigur Rós", "坂本龍一", "Florence + The Machine",
+        "Guns N' Roses", "Earth, Wind & Fire", "Jay-Z", "Simon & Garfunkel", "Nine Inch Nails", "Mötley Crüe",
+    };
+    private static final String[] TITLES = {
+        "Paranoid Android", "Let It Be", "Back In Black", "Halo", "Get Lucky", "Hoppípolla", "Merry Christmas Mr. Lawrence",
+        "Dog Days Are Over", "Sweet Child O' Mine", "September", "99 Problems", "The Sound of Silence", "Hurt",
+        "Kickstart My Heart", "Bohemian Rhapsody", "Smells Like Teen Spirit", "Lose Yourself", "Wonderwall",
+    };
+    private static final String[] SUFFIXES = {
+        "", "", "", " (Official Video)", " [Official Audio]", " (Lyrics)", " (HD)", " (Live)", " (Remastered 2011)",
+        " (feat. Guest)", " [Lyrics] (HD)", " (Official Music Video) [4K]", " - Remix", " (Audio)",
+    };
+
+    private static volatile Object sink;
+
+    private TrackNameBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        List<String> corpus = corpus();
+        System.out.printf("%d filenames%n", corpus.size());
+
+        run("legacy regexes", corpus, filename -> {
+            String[] parsed = TrackNameTest.legacyParseFilename(filename);
+            String searchTitle = TrackNameTest.legacyCleanTitle(parsed[1]);
+            return LastFmCache.keyOf(parsed[0], searchTitle);
+        });
+        run("TrackName.parse", corpus, filename -> TrackName.parse(filename).getKey());
+    }
+
+    private interface Parse {
+        Object parse(String filename);
+    }
+
+    private static void run(String name, List<String> corpus, Parse parse) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (String filename : corpus) {
+                sink = parse.parse(filename);
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (String filename : corpus) {
+                sink = parse.parse(filename);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long operations = (long) MEASURED_ROUNDS * corpus.size();
+
+        System.out.printf("%-16s %8.1f ns/op %8d B/op%n", name, (double) elapsed / operations, allocated / operations);
+    }
+
+    /**
+     * Nomi di file composti con un seme fisso, così ogni esecuzione misura gli stessi nomi.
+     */
+    private static List<String> corpus() {
+        Random random = new Random(7);
+        List<String> corpus = new ArrayList<>(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String artist = ARTISTS[random.nextInt(ARTISTS.length)];
+            String title = TITLES[random.nextInt(TITLES.length)] + SUFFIXES[random.nextInt(SUFFIXES.length)];
+            int track = 1 + random.nextInt(20);
+            String name;
+            switch (random.nextInt(6)) {
+                case 0:
+                    name = title;
+                    break;
+                case 1:
+                    name = String.format("%02d - %s - %s", track, artist, title);
+                    break;
+                case 2:
+                    name = String.format("%02d. %s", track, title);
+                    break;
+                case 3:
+                    name = (artist + "_-_" + title).replace(' ', '_');
+                    break;
+                default:
+                    name = artist + " - " + title;
+            }
+            corpus.add(name + (random.nextInt(10) == 0 ? ".MP3" : ".mp3"));
+        }
+        return corpus;
+    }
+}
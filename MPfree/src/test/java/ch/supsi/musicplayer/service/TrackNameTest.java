@@ -0,0 +1,174 @@
+package ch.supsi.musicplayer.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Confronta {@link TrackName} con le espressioni regolari usate in precedenza da LastFmService,
+ * riportate qui sotto senza modifiche: artista, titolo e titolo di ricerca devono restare identici.
+ */
+class TrackNameTest {
+    private static final Pattern[] LEGACY_FILENAME_PATTERNS = {
+        Pattern.compile("(.+?)\\s*-\\s*(.+)"),
+        Pattern.compile("(.+?)\\s*\\([^)]+\\)"),
+        Pattern.compile("(.+?)\\s*\\[[^\\]]+\\]"),
+        Pattern.compile("(.+?)\\s*-\\s*(.+)")
+    };
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "Artist - Title.mp3",
+        "Artist-Title.mp3",
+        "Artist   -   Title.mp3",
+        "Artist - Title - Remix.mp3",
+        "The Band - Song (Official Video).mp3",
+        "The Band - Song [Official Video].mp3",
+        "The Band - Song (Lyrics).mp3",
+        "The Band - Song [HD].mp3",
+        "The Band - Song (Audio) [Lyrics].mp3",
+        "The Band - Song (official music video) (HD).mp3",
+        "Singer feat. Other - Duet.mp3",
+        "Singer - Duet (feat. Other).mp3",
+        "Singer - Duet [feat. Other].mp3",
+        "Singer ft. Other - Duet (Remastered 2011).mp3",
+        "Title (Official Video).mp3",
+        "Title [Official Video].mp3",
+        "Title (Live).mp3",
+        "Title ().mp3",
+        "Title () (Live).mp3",
+        "Title [] [Live].mp3",
+        "Title (Live) [HD].mp3",
+        "Title [HD] (Live).mp3",
+        "(Intro).mp3",
+        "[Intro] Title.mp3",
+        "Title (unclosed.mp3",
+        "Title ((double)).mp3",
+        "Title (a) b (c).mp3",
+        "Official Video - Title.mp3",
+        "Some Video - Title.mp3",
+        "Title - .mp3",
+        "Title -.mp3",
+        "-Title.mp3",
+        "- Title.mp3",
+        "--Title.mp3",
+        "01 - Artist - Title.mp3",
+        "01. Title.mp3",
+        "01 Title.mp3",
+        "1-Title.mp3",
+        "Artist_-_Title.mp3",
+        "artist_title_official_video.mp3",
+        "Some_Song_(HD).mp3",
+        "Some_Song_[Lyrics].mp3",
+        "Title.with.dots.mp3",
+        "Title.",
+        ".mp3",
+        "Title",
+        "Title.MP3",
+        "AC/DC - Back In Black.mp3",
+        "Beyoncé - Halo.mp3",
+        "坂本龍一 - Merry Christmas Mr. Lawrence.mp3",
+        "  Spaced Artist  -  Spaced Title  .mp3",
+        "Artist – Title.mp3",
+        "Artist - (Official) Title.mp3",
+        "Artist - Title (Official Video) extra.mp3",
+        "Artist - Title (audio only.mp3",
+        "Artist - Title [Official].flac",
+    })
+    void parseMatchesLegacyPatterns(String filename) {
+        String[] expected = legacyParseFilename(filename);
+        TrackName name = TrackName.parse(filename);
+
+        assertEquals(expected[0], name.getArtist(), "artist");
+        assertEquals(expected[1], name.getTitle(), "title");
+        assertEquals(legacyCleanTitle(expected[1]), name.getSearchTitle(), "search title");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "Song (Official Video)",
+        "Song [Official Audio]",
+        "Song (LYRICS) [hd]",
+        "Song (Live)",
+        "Song.mp3",
+        "Song (Official Video).mp3",
+        "Song (hd remaster) (Audio)",
+        "(Official) Song",
+        "Song (official",
+        "Song []",
+    })
+    void cleanTitleMatchesLegacyReplacements(String title) {
+        assertEquals(legacyCleanTitle(title), TrackName.cleanTitle(title));
+    }
+
+    /**
+     * Nomi casuali composti dai caratteri che contano per il riconoscimento, con un seme fisso.
+     */
+    @Test
+    void randomNamesMatchLegacyPatterns() {
+        String alphabet = "ab -_.()[]fOhL";
+        String[] words = {"official", "Video", "lyrics", "AUDIO", "hd", "feat.", "01"};
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder name = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(6) == 0) {
+                    name.append(words[random.nextInt(words.length)]);
+                } else {
+                    name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            String filename = name.append(random.nextBoolean() ? ".mp3" : "").toString();
+
+            String[] expected = legacyParseFilename(filename);
+            TrackName parsed = TrackName.parse(filename);
+            assertEquals(expected[0], parsed.getArtist(), () -> "artist of \"" + filename + "\"");
+            assertEquals(expected[1], parsed.getTitle(), () -> "title of \"" + filename + "\"");
+            assertEquals(legacyCleanTitle(expected[1]), parsed.getSearchTitle(), () -> "search title of \"" + filename + "\"");
+        }
+    }
+
+    static String[] legacyParseFilename(String filename) {
+        String cleanName = filename.replaceFirst("[.][^.]+$", "");
+
+        for (Pattern pattern : LEGACY_FILENAME_PATTERNS) {
+            Matcher matcher = pattern.matcher(cleanName);
+            if (matcher.find()) {
+                String first = matcher.group(1).trim();
+                String second = matcher.groupCount() > 1 ? matcher.group(2).trim() : "";
+
+                if (second.isEmpty()) {
+                    return new String[]{"", first};
+                } else if (first.toLowerCase().contains("official") || first.toLowerCase().contains("video")) {
+                    return new String[]{"", second};
+                } else {
+                    return new String[]{first, second};
+                }
+            }
+        }
+
+        return new String[]{"", cleanName};
+    }
+
+    static String legacyCleanTitle(String title) {
+        title = title.replaceFirst("[.][^.]+$", "");
+
+        return title.replaceAll("(?i)\\(official.*?\\)", "")
+                .replaceAll("(?i)\\[official.*?\\]", "")
+                .replaceAll("(?i)\\(lyrics.*?\\)", "")
+                .replaceAll("(?i)\\[lyrics.*?\\]", "")
+                .replaceAll("(?i)\\(audio.*?\\)", "")
+                .replaceAll("(?i)\\[audio.*?\\]", "")
+                .replaceAll("(?i)\\(hd.*?\\)", "")
+                .replaceAll("(?i)\\[hd.*?\\]", "")
+                .trim();
+    }
+}